@@ -42,12 +42,29 @@
  */
 package org.jboss.osgi.vfs;
 
+import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
 import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The AbstractVFS is the entry point for VFS abstraction used by the OSGi layer.
@@ -59,7 +76,28 @@ import java.net.URL;
  */
 public abstract class AbstractVFS {
 
-    private static VFSAdaptor adaptor;
+    // The name of the adaptor that is used when no adaptor is registered as a service
+    private static final String DEFAULT_ADAPTOR = "org.jboss.osgi.vfs30.VFSAdaptor30";
+
+    private static final Object adaptorLock = new Object();
+    private static VFSAdaptor registeredAdaptor;
+    private static volatile VFSAdaptor adaptor;
+
+    /**
+     * Register the adaptor to use, instead of discovering it through the {@link ServiceLoader}.
+     *
+     * @throws IllegalStateException if an adaptor was already loaded
+     */
+    public static void setVFSAdaptor(VFSAdaptor adaptor) {
+        if (adaptor == null)
+            throw MESSAGES.illegalArgumentNull("adaptor");
+
+        synchronized (adaptorLock) {
+            if (adaptor != null)
+                throw MESSAGES.illegalStateAdaptorAlreadyLoaded();
+            registeredAdaptor = adaptor;
+        }
+    }
 
     public static VirtualFile toVirtualFile(URI uri) throws IOException {
         return getVFSAdaptor().toVirtualFile(uri);
@@ -69,6 +107,98 @@ public abstract class AbstractVFS {
         return getVFSAdaptor().toVirtualFile(url);
     }
 
+    /**
+     * Get the virtual files for the given archive URLs.
+     *
+     * The archives are mounted, indexed and their manifests read in parallel on a pool that is bounded
+     * by the number of available processors.
+     *
+     * @return the virtual files in the order of the given URLs
+     * @throws IOException if any of the archives cannot be accessed
+     * @see #toVirtualFiles(Collection, Executor)
+     */
+    public static List<VirtualFile> toVirtualFiles(Collection<URL> urls) throws IOException {
+        if (urls == null)
+            throw MESSAGES.illegalArgumentNull("urls");
+
+        int threads = Math.min(urls.size(), Runtime.getRuntime().availableProcessors());
+        if (threads < 2)
+            return toVirtualFiles(urls, new Executor() {
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new MountThreadFactory());
+        try {
+            return toVirtualFiles(urls, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Get the virtual files for the given archive URLs.
+     *
+     * The archives are mounted, indexed and their manifests read in parallel on the given executor.
+     * Tasks that the executor rejects are run by the calling thread.
+     *
+     * The virtual files are not closed if any archive fails, because the adaptor may share them with other callers.
+     * If the calling thread is interrupted, the tasks that did not start yet are cancelled.
+     *
+     * @return the virtual files in the order of the given URLs
+     * @throws IOException if any of the archives cannot be accessed
+     */
+    public static List<VirtualFile> toVirtualFiles(Collection<URL> urls, Executor executor) throws IOException {
+        if (urls == null)
+            throw MESSAGES.illegalArgumentNull("urls");
+        if (executor == null)
+            throw MESSAGES.illegalArgumentNull("executor");
+
+        List<FutureTask<VirtualFile>> tasks = new ArrayList<FutureTask<VirtualFile>>(urls.size());
+        for (final URL url : urls) {
+            FutureTask<VirtualFile> task = new FutureTask<VirtualFile>(new Callable<VirtualFile>() {
+                public VirtualFile call() throws IOException {
+                    return prepareVirtualFile(toVirtualFile(url));
+                }
+            });
+            tasks.add(task);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                task.run();
+            }
+        }
+
+        List<VirtualFile> result = new ArrayList<VirtualFile>(tasks.size());
+        Throwable failure = null;
+        for (FutureTask<VirtualFile> task : tasks) {
+            try {
+                result.add(task.get());
+            } catch (ExecutionException ex) {
+                if (failure == null)
+                    failure = ex.getCause();
+            } catch (InterruptedException ex) {
+                // Tasks that are running complete on their own, a mount is not interrupted half way
+                for (FutureTask<VirtualFile> aux : tasks)
+                    aux.cancel(false);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        if (failure != null) {
+            if (failure instanceof IOException)
+                throw (IOException) failure;
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+            if (failure instanceof Error)
+                throw (Error) failure;
+            throw new IOException(failure);
+        }
+        return result;
+    }
+
     public static VirtualFile toVirtualFile(String name, InputStream input) throws IOException {
         return getVFSAdaptor().toVirtualFile(name, input);
     }
@@ -85,28 +215,88 @@ public abstract class AbstractVFS {
         return getVFSAdaptor().adapt(virtualFile);
     }
 
-    @SuppressWarnings("unchecked")
-    private static VFSAdaptor getVFSAdaptor() {
-        if (adaptor == null) {
-            Class<VFSAdaptor> adaptorClass = null;
+    // Mount and index the archive by reading its manifest. The file is not closed on failure, it may be shared.
+    static VirtualFile prepareVirtualFile(VirtualFile file) throws IOException {
+        VFSUtils.getManifest(file);
+        return file;
+    }
 
-            // Try to load the jboss-vfs-3.0.x adaptor
-            try {
-                String adaptorName = "org.jboss.osgi.vfs30.VFSAdaptor30";
-                adaptorClass = (Class<VFSAdaptor>) AbstractVFS.class.getClassLoader().loadClass(adaptorName);
-            } catch (ClassNotFoundException e) {
-                // ignore
+    private static final class MountThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable run) {
+            Thread thread = new Thread(run, "vfs-mount-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    // The adaptor is loaded on first use, a failed load is tried again on the next call
+    private static VFSAdaptor getVFSAdaptor() {
+        VFSAdaptor result = adaptor;
+        if (result == null) {
+            synchronized (adaptorLock) {
+                result = adaptor;
+                if (result == null) {
+                    result = loadVFSAdaptor();
+                    adaptor = result;
+                }
             }
+        }
+        return result;
+    }
 
-            if (adaptorClass == null)
-                throw MESSAGES.illegalStateCannotLoadAdaptor();
+    /**
+     * Get the registered adaptor, or the service with the highest {@link AdaptorPriority}, or the default adaptor.
+     * Called with the adaptor lock held.
+     */
+    @SuppressWarnings("unchecked")
+    private static VFSAdaptor loadVFSAdaptor() {
+        if (registeredAdaptor != null)
+            return registeredAdaptor;
 
+        ClassLoader classLoader = AbstractVFS.class.getClassLoader();
+        VFSAdaptor result = null;
+        int resultPriority = Integer.MIN_VALUE;
+        Iterator<VFSAdaptor> iterator = ServiceLoader.load(VFSAdaptor.class, classLoader).iterator();
+        while (true) {
+            VFSAdaptor candidate;
             try {
-                adaptor = adaptorClass.newInstance();
-            } catch (Exception ex) {
-                throw MESSAGES.illegalStateCannotCreateAdaptor(ex);
+                if (iterator.hasNext() == false)
+                    break;
+                candidate = iterator.next();
+            } catch (ServiceConfigurationError ex) {
+                LOGGER.debugf(ex, "Cannot load VFS adaptor service");
+                continue;
             }
+            AdaptorPriority annotation = candidate.getClass().getAnnotation(AdaptorPriority.class);
+            int priority = annotation != null ? annotation.value() : AdaptorPriority.DEFAULT;
+            if (result == null || priority > resultPriority) {
+                result = candidate;
+                resultPriority = priority;
+            }
+        }
+        if (result != null) {
+            LOGGER.debugf("Using VFS adaptor: %s", result);
+            return result;
+        }
+
+        // Fall back to the jboss-vfs-3.0.x adaptor
+        Class<VFSAdaptor> adaptorClass = null;
+        try {
+            adaptorClass = (Class<VFSAdaptor>) classLoader.loadClass(DEFAULT_ADAPTOR);
+        } catch (ClassNotFoundException e) {
+            // ignore
+        }
+
+        if (adaptorClass == null)
+            throw MESSAGES.illegalStateCannotLoadAdaptor();
+
+        try {
+            return adaptorClass.newInstance();
+        } catch (Exception ex) {
+            throw MESSAGES.illegalStateCannotCreateAdaptor(ex);
         }
-        return adaptor;
     }
 }
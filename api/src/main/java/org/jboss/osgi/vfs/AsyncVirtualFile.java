@@ -0,0 +1,320 @@
+/*
+ * #%L
+ * JBossOSGi VFS API
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs;
+
+import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
+import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Manifest;
+
+/**
+ * An asynchronous companion to a {@link VirtualFile}.
+ *
+ * Every operation runs on an I/O executor and returns a {@link Future}. An optional {@link VFSCallback} is invoked
+ * when the operation completes, so that mount, manifest read and entry scan can be pipelined without blocking
+ * the caller. The default executor uses virtual threads when the runtime supports them, daemon threads otherwise.
+ *
+ * @since 17-Oct-2026
+ */
+public final class AsyncVirtualFile {
+
+    private static volatile Executor defaultExecutor;
+
+    private final VirtualFile virtualFile;
+    private final Executor executor;
+
+    private AsyncVirtualFile(VirtualFile virtualFile, Executor executor) {
+        this.virtualFile = virtualFile;
+        this.executor = executor;
+    }
+
+    /**
+     * Get the asynchronous companion of the given file that runs on the default executor.
+     */
+    public static AsyncVirtualFile of(VirtualFile virtualFile) {
+        return of(virtualFile, getDefaultExecutor());
+    }
+
+    /**
+     * Get the asynchronous companion of the given file that runs on the given executor.
+     * Tasks that the executor rejects are run by the calling thread.
+     */
+    public static AsyncVirtualFile of(VirtualFile virtualFile, Executor executor) {
+        if (virtualFile == null)
+            throw MESSAGES.illegalArgumentNull("virtualFile");
+        if (executor == null)
+            throw MESSAGES.illegalArgumentNull("executor");
+        return new AsyncVirtualFile(virtualFile, executor);
+    }
+
+    /**
+     * Get the virtual file for the given URL, mounted and indexed by reading its manifest.
+     *
+     * The virtual file is not closed if this fails, because the adaptor may share it with other callers.
+     */
+    public static Future<AsyncVirtualFile> toVirtualFile(final URL url, VFSCallback<? super AsyncVirtualFile> callback) {
+        if (url == null)
+            throw MESSAGES.illegalArgumentNull("url");
+
+        final Executor executor = getDefaultExecutor();
+        return submit(executor, new Callable<AsyncVirtualFile>() {
+            public AsyncVirtualFile call() throws Exception {
+                VirtualFile file = AbstractVFS.prepareVirtualFile(AbstractVFS.toVirtualFile(url));
+                return new AsyncVirtualFile(file, executor);
+            }
+        }, callback);
+    }
+
+    /**
+     * Set the executor that is used for asynchronous operations, or null to restore the default executor.
+     *
+     * Companions that were already created keep their executor.
+     */
+    public static void setDefaultExecutor(Executor executor) {
+        defaultExecutor = executor;
+    }
+
+    public static Executor getDefaultExecutor() {
+        Executor executor = defaultExecutor;
+        return executor != null ? executor : ExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Get the underlying virtual file.
+     */
+    public VirtualFile getVirtualFile() {
+        return virtualFile;
+    }
+
+    /**
+     * @see VFSUtils#getManifest(VirtualFile)
+     */
+    public Future<Manifest> getManifest(VFSCallback<? super Manifest> callback) {
+        return submit(new Callable<Manifest>() {
+            public Manifest call() throws Exception {
+                return VFSUtils.getManifest(virtualFile);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see VirtualFile#getChild(String)
+     */
+    public Future<VirtualFile> getChild(final String path, VFSCallback<? super VirtualFile> callback) {
+        if (path == null)
+            throw MESSAGES.illegalArgumentNull("path");
+
+        return submit(new Callable<VirtualFile>() {
+            public VirtualFile call() throws Exception {
+                return virtualFile.getChild(path);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see VirtualFile#getChildren()
+     */
+    public Future<List<VirtualFile>> getChildren(VFSCallback<? super List<VirtualFile>> callback) {
+        return submit(new Callable<List<VirtualFile>>() {
+            public List<VirtualFile> call() throws Exception {
+                return virtualFile.getChildren();
+            }
+        }, callback);
+    }
+
+    /**
+     * @see VirtualFile#getChildrenRecursively()
+     */
+    public Future<List<VirtualFile>> getChildrenRecursively(VFSCallback<? super List<VirtualFile>> callback) {
+        return submit(new Callable<List<VirtualFile>>() {
+            public List<VirtualFile> call() throws Exception {
+                return virtualFile.getChildrenRecursively();
+            }
+        }, callback);
+    }
+
+    /**
+     * @see VirtualFile#findEntries(String, String, boolean)
+     */
+    public Future<Enumeration<URL>> findEntries(final String path, final String pattern, final boolean recurse, VFSCallback<? super Enumeration<URL>> callback) {
+        return submit(new Callable<Enumeration<URL>>() {
+            public Enumeration<URL> call() throws Exception {
+                return virtualFile.findEntries(path, pattern, recurse);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see VirtualFile#getEntryPaths(String)
+     */
+    public Future<Enumeration<String>> getEntryPaths(final String path, VFSCallback<? super Enumeration<String>> callback) {
+        return submit(new Callable<Enumeration<String>>() {
+            public Enumeration<String> call() throws Exception {
+                return virtualFile.getEntryPaths(path);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see VirtualFile#openStream()
+     */
+    public Future<InputStream> openStream(VFSCallback<? super InputStream> callback) {
+        return submit(new Callable<InputStream>() {
+            public InputStream call() throws Exception {
+                return virtualFile.openStream();
+            }
+        }, callback);
+    }
+
+    /**
+     * @see VirtualFile#getStreamURL()
+     */
+    public Future<URL> getStreamURL(VFSCallback<? super URL> callback) {
+        return submit(new Callable<URL>() {
+            public URL call() throws Exception {
+                return virtualFile.getStreamURL();
+            }
+        }, callback);
+    }
+
+    /**
+     * Run any other task against the virtual file on the executor of this companion.
+     */
+    public <T> Future<T> submit(Callable<T> task, VFSCallback<? super T> callback) {
+        if (task == null)
+            throw MESSAGES.illegalArgumentNull("task");
+        return submit(executor, task, callback);
+    }
+
+    @Override
+    public String toString() {
+        return "Async[" + virtualFile + "]";
+    }
+
+    private static <T> Future<T> submit(Executor executor, Callable<T> task, VFSCallback<? super T> callback) {
+        CallbackTask<T> future = new CallbackTask<T>(task, callback);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException ex) {
+            future.run();
+        }
+        return future;
+    }
+
+    // Invokes the callback once the outcome is published, on the thread that completed or cancelled the task.
+    // The future is done before the callback runs, so a later cancel() has no effect.
+    private static final class CallbackTask<T> extends FutureTask<T> {
+
+        private final VFSCallback<? super T> callback;
+
+        CallbackTask(Callable<T> task, VFSCallback<? super T> callback) {
+            super(task);
+            this.callback = callback;
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null)
+                return;
+            try {
+                if (isCancelled()) {
+                    callback.failed(new CancellationException());
+                    return;
+                }
+                T result;
+                try {
+                    result = get();
+                } catch (ExecutionException ex) {
+                    callback.failed(ex.getCause());
+                    return;
+                } catch (InterruptedException ex) {
+                    // Cannot happen, the task is done
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                callback.completed(result);
+            } catch (RuntimeException ex) {
+                LOGGER.debugf(ex, "Callback failed: %s", callback);
+            }
+        }
+    }
+
+    // Use virtual threads when the runtime supports them
+    private static Executor createDefaultExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) method.invoke(null);
+        } catch (Exception ex) {
+            // not supported
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, "vfs-io-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // The default executor is created on first use
+    private static class ExecutorHolder {
+        static final Executor EXECUTOR = createDefaultExecutor();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * JBossOSGi VFS API
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small lock-free pool of copy buffers.
+ *
+ * Buffers that do not fit into the pool on release are left to the garbage collector.
+ *
+ * @since 17-Oct-2026
+ */
+final class BufferPool {
+
+    static final int BUFFER_SIZE = 65536;
+
+    private final AtomicReferenceArray<byte[]> slots;
+
+    BufferPool(int size) {
+        slots = new AtomicReferenceArray<byte[]>(size);
+    }
+
+    byte[] acquire() {
+        int start = (int) Thread.currentThread().getId();
+        int length = slots.length();
+        for (int i = 0; i < length; i++) {
+            int idx = (start + i) % length;
+            if (slots.get(idx) != null) {
+                byte[] buffer = slots.getAndSet(idx, null);
+                if (buffer != null)
+                    return buffer;
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    void release(byte[] buffer) {
+        int start = (int) Thread.currentThread().getId();
+        int length = slots.length();
+        for (int i = 0; i < length; i++) {
+            int idx = (start + i) % length;
+            if (slots.get(idx) == null && slots.compareAndSet(idx, null, buffer))
+                return;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * JBossOSGi VFS API
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * Optional operations of a {@link VirtualFile} that an adaptor may implement.
+ * 
+ * Callers should not test for this interface, but use the static helpers in {@link VFSUtils}, which fall back
+ * to the plain {@link VirtualFile} operations for other implementations.
+ * 
+ * @since 17-Oct-2026
+ */
+public interface ExtendedVirtualFile extends VirtualFile {
+
+    /**
+     * Get the time at which the file was last modified.
+     * 
+     * @return the time in milliseconds since the epoch, or 0 if it is not known
+     * @throws IOException for any problem accessing the virtual file system
+     */
+    long getLastModified() throws IOException;
+
+    /**
+     * Get the size of the file.
+     * 
+     * @return the size in bytes, or 0 for a directory
+     * @throws IOException for any problem accessing the virtual file system
+     */
+    long getSize() throws IOException;
+
+    /**
+     * Read the contents of the given entries in a single pass.
+     * 
+     * Entries are passed to the handler in the order in which they are stored in the archive, not in the order of the given paths.
+     * Paths that do not exist or denote a directory are skipped.
+     *
+     * A file that was closed is not rejected, its archive is opened again and must be closed again by the caller.
+     *
+     * @param paths the entry paths relative to this file
+     * @param handler the handler that receives the content of each entry
+     * @throws IOException for any error accessing the file system
+     */
+    void readEntries(Collection<String> paths, EntryHandler handler) throws IOException;
+
+    /**
+     * Walk the descendants of this file depth first, without building a list of them.
+     * 
+     * Each entry is first offered to {@link Visitor#accept(String, boolean)} by its path, only accepted entries are
+     * passed to {@link Visitor#visit(VirtualFile)}. The walk holds state proportional to the depth of the tree,
+     * not to the number of entries.
+     *
+     * A file that was closed is not rejected, its archive is opened again and must be closed again by the caller.
+     *
+     * @param visitor the visitor that decides how the walk proceeds
+     * @throws IOException for any error accessing the file system, or thrown by the visitor
+     */
+    void visit(Visitor visitor) throws IOException;
+
+    /**
+     * Receives the entry contents from {@link ExtendedVirtualFile#readEntries(Collection, EntryHandler)}.
+     */
+    interface EntryHandler {
+
+        /**
+         * Handle the content of an entry.
+         * 
+         * @param path the entry path as it was given to readEntries
+         * @param content a read-only buffer with the entry content, which is only valid for the duration of this call
+         * @throws IOException to abort reading the remaining entries
+         */
+        void handleEntry(String path, ByteBuffer content) throws IOException;
+    }
+
+    /**
+     * Receives the descendants of a file from {@link ExtendedVirtualFile#visit(Visitor)}.
+     */
+    interface Visitor {
+
+        /**
+         * Filter an entry before a virtual file is created for it.
+         * 
+         * The walk still descends into directories that are not accepted.
+         * 
+         * @param path the entry path relative to the visited file, without a trailing "/"
+         * @param directory true if the entry is a directory
+         * @return true to visit the entry
+         */
+        boolean accept(String path, boolean directory);
+
+        /**
+         * Visit an accepted entry.
+         * 
+         * @return how the walk proceeds, {@link VisitResult#SKIP_SUBTREE} skips the children of a directory
+         * @throws IOException to abort the walk
+         */
+        VisitResult visit(VirtualFile file) throws IOException;
+    }
+
+    /**
+     * Tells {@link ExtendedVirtualFile#visit(Visitor)} how to proceed after an entry was visited.
+     */
+    enum VisitResult {
+        CONTINUE, SKIP_SUBTREE, TERMINATE
+    }
+}
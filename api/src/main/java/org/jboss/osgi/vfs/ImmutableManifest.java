@@ -0,0 +1,162 @@
+/*
+ * #%L
+ * JBossOSGi VFS API
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * A manifest that cannot be modified, so that a parsed manifest can be shared between callers.
+ *
+ * Use {@link #clone()} to obtain a modifiable copy. The copy constructor <code>new Manifest(manifest)</code> copies
+ * the main attributes, but shares the attributes of the entries, which stay unmodifiable.
+ *
+ * @since 17-Oct-2026
+ */
+final class ImmutableManifest extends Manifest {
+
+    private final Attributes mainAttributes;
+    private final Map<String, Attributes> entries;
+
+    ImmutableManifest(Manifest manifest) {
+        super(manifest);
+        mainAttributes = new ImmutableAttributes(manifest.getMainAttributes());
+        Map<String, Attributes> map = new LinkedHashMap<String, Attributes>();
+        for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet())
+            map.put(entry.getKey(), new ImmutableAttributes(entry.getValue()));
+        entries = Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public Attributes getMainAttributes() {
+        return mainAttributes;
+    }
+
+    @Override
+    public Map<String, Attributes> getEntries() {
+        return entries;
+    }
+
+    @Override
+    public Attributes getAttributes(String name) {
+        return entries.get(name);
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void read(InputStream is) {
+        throw new UnsupportedOperationException();
+    }
+
+    // A modifiable copy, with modifiable attributes for the entries as well
+    @Override
+    public Object clone() {
+        Manifest copy = new Manifest();
+        copy.getMainAttributes().putAll(mainAttributes);
+        for (Map.Entry<String, Attributes> entry : entries.entrySet())
+            copy.getEntries().put(entry.getKey(), new Attributes(entry.getValue()));
+        return copy;
+    }
+
+    private static final class ImmutableAttributes extends Attributes {
+
+        ImmutableAttributes(Attributes attributes) {
+            super(attributes);
+        }
+
+        @Override
+        public Object put(Object name, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String putValue(String name, String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object remove(Object name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void putAll(Map<?, ?> attr) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<Object> keySet() {
+            return Collections.unmodifiableSet(super.keySet());
+        }
+
+        @Override
+        public Collection<Object> values() {
+            return Collections.unmodifiableCollection(super.values());
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return Collections.unmodifiableSet(super.entrySet());
+        }
+
+        @Override
+        public Object clone() {
+            return new Attributes(this);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * JBossOSGi VFS API
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power of two buckets.
+ *
+ * @since 17-Oct-2026
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    // Bucket i counts durations in [2^(i-1), 2^i) nanos, the last two slots hold the count and the total
+    private final AtomicLongArray values = new AtomicLongArray(BUCKETS + 2);
+
+    void record(long durationNanos) {
+        long duration = Math.max(0, durationNanos);
+        values.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(duration)));
+        values.incrementAndGet(BUCKETS);
+        values.addAndGet(BUCKETS + 1, duration);
+    }
+
+    long getCount() {
+        return values.get(BUCKETS);
+    }
+
+    double getMeanNanos() {
+        long count = values.get(BUCKETS);
+        return count > 0 ? (double) values.get(BUCKETS + 1) / count : 0.0;
+    }
+
+    /**
+     * Get the upper bound of the bucket that contains the given percentile.
+     */
+    double getPercentileNanos(double percentile) {
+        long count = values.get(BUCKETS);
+        if (count == 0)
+            return 0.0;
+
+        long threshold = (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += values.get(i);
+            if (cumulative >= threshold)
+                return i < 63 ? (double) (1L << i) : Long.MAX_VALUE;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void reset() {
+        for (int i = 0; i < values.length(); i++)
+            values.set(i, 0);
+    }
+}
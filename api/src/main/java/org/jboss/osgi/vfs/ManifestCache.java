@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * JBossOSGi VFS API
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Manifest;
+
+/**
+ * A bounded LRU cache of parsed manifests by archive.
+ *
+ * A cached manifest is only returned while the last modified time and the size of the manifest file are unchanged,
+ * so that an edit to the manifest of an exploded directory is seen. Entries are removed when the archive is closed,
+ * see {@link VFSUtils#evictManifest(VirtualFile)}.
+ *
+ * @since 17-Oct-2026
+ */
+final class ManifestCache {
+
+    /** The cached value for archives without a manifest */
+    static final Manifest NO_MANIFEST = new ImmutableManifest(new Manifest());
+
+    private final int maxSize;
+    private final Map<VirtualFile, CachedManifest> manifests;
+
+    ManifestCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.manifests = new LinkedHashMap<VirtualFile, CachedManifest>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<VirtualFile, CachedManifest> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Get the cached manifest, {@link #NO_MANIFEST} or null if the archive is not in the cache or its manifest file changed.
+     */
+    Manifest get(VirtualFile archive, long lastModified, long size) {
+        if (maxSize == 0)
+            return null;
+        CachedManifest entry;
+        synchronized (manifests) {
+            entry = manifests.get(archive);
+        }
+        if (entry == null || entry.lastModified != lastModified || entry.size != size)
+            return null;
+        return entry.manifest;
+    }
+
+    void put(VirtualFile archive, Manifest manifest, long lastModified, long size) {
+        if (maxSize == 0)
+            return;
+        synchronized (manifests) {
+            manifests.put(archive, new CachedManifest(manifest, lastModified, size));
+        }
+    }
+
+    void remove(VirtualFile archive) {
+        if (maxSize == 0)
+            return;
+        synchronized (manifests) {
+            manifests.remove(archive);
+        }
+    }
+
+    private static final class CachedManifest {
+
+        private final Manifest manifest;
+        private final long lastModified;
+        private final long size;
+
+        CachedManifest(Manifest manifest, long lastModified, long size) {
+            this.manifest = manifest;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+}
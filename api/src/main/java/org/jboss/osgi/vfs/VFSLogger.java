@@ -43,8 +43,13 @@
 
 package org.jboss.osgi.vfs;
 
+import static org.jboss.logging.Logger.Level.WARN;
+
 import org.jboss.logging.BasicLogger;
 import org.jboss.logging.Logger;
+import org.jboss.logging.annotations.Cause;
+import org.jboss.logging.annotations.LogMessage;
+import org.jboss.logging.annotations.Message;
 import org.jboss.logging.annotations.MessageLogger;
 
 /**
@@ -59,4 +64,8 @@ public interface VFSLogger extends BasicLogger {
 
     VFSLogger LOGGER = Logger.getMessageLogger(VFSLogger.class, "org.jboss.osgi.vfs");
 
+    @LogMessage(level = WARN)
+    @Message(id = 10000, value = "VirtualFile mounted but not closed: %s")
+    void warnVirtualFileNotClosed(@Cause Throwable creationStack, String pathName);
+
 }
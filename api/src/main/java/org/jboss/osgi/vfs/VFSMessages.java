@@ -43,6 +43,8 @@
 
 package org.jboss.osgi.vfs;
 
+import java.io.IOException;
+
 import org.jboss.logging.Messages;
 import org.jboss.logging.annotations.Cause;
 import org.jboss.logging.annotations.Message;
@@ -80,4 +82,16 @@ public interface VFSMessages {
 
     @Message(id = 10106, value = "Cannot close VFS temp file provider")
     IllegalStateException illegalStateCannotCloseTempFileProvider(@Cause Throwable cause);
+
+    @Message(id = 10107, value = "VFS adaptor already loaded")
+    IllegalStateException illegalStateAdaptorAlreadyLoaded();
+
+    @Message(id = 10108, value = "Not a directory root: %s")
+    IllegalArgumentException illegalArgumentNotDirectoryRoot(Object file);
+
+    @Message(id = 10109, value = "Temp storage quota of %d bytes exceeded by: %s")
+    IOException ioTempQuotaExceeded(long quota, String name);
+
+    @Message(id = 10110, value = "%s is empty")
+    IllegalArgumentException illegalArgumentEmpty(String name);
 }
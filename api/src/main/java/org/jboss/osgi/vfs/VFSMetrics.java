@@ -0,0 +1,232 @@
+/*
+ * #%L
+ * JBossOSGi VFS API
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs;
+
+import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
+import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The instrumentation surface of the virtual file system layer.
+ *
+ * Operations report their duration to the registered {@link Listener}s. With no listener registered,
+ * instrumented code only pays for a volatile read. Gauges are provided by the active adaptor through
+ * a {@link GaugeProvider}.
+ *
+ * The default {@link VFSMetricsCollector} is registered as a JMX MBean with {@link #registerMBean()}, or
+ * at startup with the system property {@link #PROPERTY_METRICS_JMX}.
+ *
+ * @since 17-Oct-2026
+ */
+public final class VFSMetrics {
+
+    /**
+     * System property to register the default metrics MBean on startup: <code>jboss.osgi.vfs.metrics.jmx</code>
+     */
+    public static final String PROPERTY_METRICS_JMX = "jboss.osgi.vfs.metrics.jmx";
+
+    /**
+     * The object name of the default metrics MBean
+     */
+    public static final String OBJECT_NAME = "jboss.osgi:service=vfs,type=metrics";
+
+    /**
+     * The instrumented operations
+     */
+    public enum Operation {
+        MOUNT, GET_CHILD, FIND_ENTRIES, GET_ENTRY_PATHS, OPEN_STREAM, GET_STREAM_URL, BUILD_STREAM_JAR
+    }
+
+    /**
+     * Receives the duration of completed operations. Implementations must be thread safe and fast.
+     */
+    public interface Listener {
+
+        void operationCompleted(Operation operation, long durationNanos);
+    }
+
+    /**
+     * Provides the gauges of the active adaptor.
+     */
+    public interface GaugeProvider {
+
+        /** The number of archives that are currently mounted */
+        long getLiveMounts();
+
+        /** The number of registered virtual files */
+        long getRegistrySize();
+
+        /** The number of bytes held in temp files */
+        long getTempBytes();
+    }
+
+    /** The start time that is returned when no listener is registered */
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+
+    private static volatile Listener[] listeners = NO_LISTENERS;
+    private static volatile GaugeProvider gaugeProvider;
+    private static VFSMetricsCollector mbeanCollector;
+
+    static {
+        if (Boolean.parseBoolean(SecurityActions.getSystemProperty(PROPERTY_METRICS_JMX, "false")))
+            registerMBean();
+    }
+
+    // Hide ctor
+    private VFSMetrics() {
+    }
+
+    public static void addListener(Listener listener) {
+        if (listener == null)
+            throw MESSAGES.illegalArgumentNull("listener");
+        synchronized (VFSMetrics.class) {
+            Listener[] current = listeners;
+            Listener[] result = new Listener[current.length + 1];
+            System.arraycopy(current, 0, result, 0, current.length);
+            result[current.length] = listener;
+            listeners = result;
+        }
+    }
+
+    public static void removeListener(Listener listener) {
+        synchronized (VFSMetrics.class) {
+            Listener[] current = listeners;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == listener) {
+                    Listener[] result = new Listener[current.length - 1];
+                    System.arraycopy(current, 0, result, 0, i);
+                    System.arraycopy(current, i + 1, result, i, current.length - i - 1);
+                    listeners = result;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the start time of an operation, to be passed to {@link #completed(Operation, long)}.
+     */
+    public static long start() {
+        return listeners.length != 0 ? System.nanoTime() : NOT_STARTED;
+    }
+
+    /**
+     * Report a completed operation to the registered listeners.
+     *
+     * @param start the value returned by {@link #start()}
+     */
+    public static void completed(Operation operation, long start) {
+        if (start == NOT_STARTED)
+            return;
+
+        long duration = System.nanoTime() - start;
+        for (Listener listener : listeners) {
+            try {
+                listener.operationCompleted(operation, duration);
+            } catch (RuntimeException ex) {
+                LOGGER.debugf(ex, "Metrics listener failed: %s", listener);
+            }
+        }
+    }
+
+    public static void setGaugeProvider(GaugeProvider provider) {
+        gaugeProvider = provider;
+    }
+
+    public static long getLiveMounts() {
+        GaugeProvider provider = gaugeProvider;
+        return provider != null ? provider.getLiveMounts() : 0L;
+    }
+
+    public static long getRegistrySize() {
+        GaugeProvider provider = gaugeProvider;
+        return provider != null ? provider.getRegistrySize() : 0L;
+    }
+
+    public static long getTempBytes() {
+        GaugeProvider provider = gaugeProvider;
+        return provider != null ? provider.getTempBytes() : 0L;
+    }
+
+    /**
+     * Register the default {@link VFSMetricsCollector} as listener and with the platform MBean server.
+     *
+     * @return the registered collector
+     */
+    public static synchronized VFSMetricsCollector registerMBean() {
+        if (mbeanCollector == null) {
+            VFSMetricsCollector collector = new VFSMetricsCollector();
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(collector, new ObjectName(OBJECT_NAME));
+            } catch (JMException ex) {
+                LOGGER.debugf(ex, "Cannot register metrics MBean");
+            }
+            addListener(collector);
+            mbeanCollector = collector;
+        }
+        return mbeanCollector;
+    }
+
+    /**
+     * Unregister the default {@link VFSMetricsCollector}.
+     */
+    public static synchronized void unregisterMBean() {
+        if (mbeanCollector != null) {
+            removeListener(mbeanCollector);
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.unregisterMBean(new ObjectName(OBJECT_NAME));
+            } catch (JMException ex) {
+                LOGGER.debugf(ex, "Cannot unregister metrics MBean");
+            }
+            mbeanCollector = null;
+        }
+    }
+}
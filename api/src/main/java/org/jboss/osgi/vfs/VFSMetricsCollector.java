@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * JBossOSGi VFS API
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs;
+
+import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.jboss.osgi.vfs.VFSMetrics.Operation;
+
+/**
+ * The default metrics listener, which keeps a count and a latency histogram per operation.
+ *
+ * @since 17-Oct-2026
+ */
+public class VFSMetricsCollector implements VFSMetrics.Listener, VFSMetricsCollectorMBean {
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final Map<Operation, LatencyHistogram> histograms = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+
+    public VFSMetricsCollector() {
+        for (Operation operation : Operation.values())
+            histograms.put(operation, new LatencyHistogram());
+    }
+
+    @Override
+    public void operationCompleted(Operation operation, long durationNanos) {
+        histograms.get(operation).record(durationNanos);
+    }
+
+    @Override
+    public long getLiveMounts() {
+        return VFSMetrics.getLiveMounts();
+    }
+
+    @Override
+    public long getRegistrySize() {
+        return VFSMetrics.getRegistrySize();
+    }
+
+    @Override
+    public long getTempBytes() {
+        return VFSMetrics.getTempBytes();
+    }
+
+    @Override
+    public String[] getOperationNames() {
+        Operation[] operations = Operation.values();
+        String[] result = new String[operations.length];
+        for (int i = 0; i < operations.length; i++)
+            result[i] = operations[i].name();
+        return result;
+    }
+
+    @Override
+    public long getCount(String operation) {
+        return getHistogram(operation).getCount();
+    }
+
+    @Override
+    public double getMeanMillis(String operation) {
+        return getHistogram(operation).getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPercentileMillis(String operation, double percentile) {
+        return getHistogram(operation).getPercentileNanos(percentile) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("liveMounts=").append(getLiveMounts());
+        builder.append(", registrySize=").append(getRegistrySize());
+        builder.append(", tempBytes=").append(getTempBytes());
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = histograms.get(operation);
+            builder.append("\n").append(operation).append(": count=").append(histogram.getCount());
+            builder.append(", mean=").append(histogram.getMeanNanos() / NANOS_PER_MILLI).append("ms");
+            builder.append(", p99<=").append(histogram.getPercentileNanos(99.0) / NANOS_PER_MILLI).append("ms");
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values())
+            histogram.reset();
+    }
+
+    private LatencyHistogram getHistogram(String operation) {
+        if (operation == null)
+            throw MESSAGES.illegalArgumentNull("operation");
+        return histograms.get(Operation.valueOf(operation));
+    }
+}
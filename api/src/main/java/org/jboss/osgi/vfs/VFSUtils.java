@@ -45,10 +45,18 @@ package org.jboss.osgi.vfs;
 import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
 import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
@@ -60,45 +68,280 @@ import java.util.jar.Manifest;
  */
 public final class VFSUtils {
 
+    /**
+     * System property for the maximum number of cached manifests: <code>jboss.osgi.vfs.manifestCacheSize</code>
+     *
+     * A value of 0 disables the cache. The default is 256.
+     */
+    public static final String PROPERTY_MANIFEST_CACHE_SIZE = "jboss.osgi.vfs.manifestCacheSize";
+
+    private static final BufferPool bufferPool = new BufferPool(Math.min(64, 2 * Runtime.getRuntime().availableProcessors()));
+    private static final ManifestCache manifestCache;
+    static {
+        String value = SecurityActions.getSystemProperty(PROPERTY_MANIFEST_CACHE_SIZE, "256");
+        int maxSize;
+        try {
+            maxSize = Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException ex) {
+            maxSize = 256;
+        }
+        manifestCache = new ManifestCache(maxSize);
+    }
+
     // Hide ctor
     private VFSUtils() {
     }
 
+    /**
+     * Get the manifest of the given archive.
+     *
+     * The parsed manifest is cached until the archive is closed, or the manifest file changes. It is shared between
+     * callers and cannot be modified, use {@link Manifest#clone()} to obtain a modifiable copy.
+     *
+     * @return the manifest or null if the archive does not have one
+     */
     public static Manifest getManifest(VirtualFile archive) throws IOException {
         if (archive == null)
             throw MESSAGES.illegalArgumentNull("archive");
 
+        // The cached manifest is validated against the last modified time and the size of the manifest file,
+        // if the adaptor provides them. Otherwise it is cached until the archive is closed.
         VirtualFile manifest = archive.getChild(JarFile.MANIFEST_NAME);
-        if (manifest == null)
+        long lastModified = -1;
+        long size = -1;
+        if (manifest instanceof ExtendedVirtualFile && manifestCache.isEnabled()) {
+            lastModified = ((ExtendedVirtualFile) manifest).getLastModified();
+            size = ((ExtendedVirtualFile) manifest).getSize();
+        }
+        Manifest result = manifestCache.get(archive, lastModified, size);
+        if (result != null)
+            return result != ManifestCache.NO_MANIFEST ? result : null;
+
+        if (manifest == null) {
+            manifestCache.put(archive, ManifestCache.NO_MANIFEST, lastModified, size);
             return null;
+        }
 
         InputStream stream = manifest.openStream();
         try {
-            return new Manifest(stream);
+            result = new ImmutableManifest(new Manifest(stream));
         } finally {
             try {
                 stream.close();
             } catch (IOException ignored) {
             }
         }
+        manifestCache.put(archive, result, lastModified, size);
+        return result;
+    }
+
+    /**
+     * Remove the cached manifest of the given archive. This is called when the archive is closed.
+     */
+    public static void evictManifest(VirtualFile archive) {
+        if (archive != null)
+            manifestCache.remove(archive);
+    }
+
+    /**
+     * Get the time at which the given file was last modified.
+     *
+     * @return the time in milliseconds since the epoch, or 0 if it is not known
+     * @see ExtendedVirtualFile#getLastModified()
+     */
+    public static long getLastModified(VirtualFile file) throws IOException {
+        if (file == null)
+            throw MESSAGES.illegalArgumentNull("file");
+
+        return file instanceof ExtendedVirtualFile ? ((ExtendedVirtualFile) file).getLastModified() : 0;
+    }
+
+    /**
+     * Get the size of the given file. If the adaptor does not provide it, the content of the file is read to count it.
+     *
+     * @return the size in bytes, or 0 for a directory
+     * @see ExtendedVirtualFile#getSize()
+     */
+    public static long getSize(VirtualFile file) throws IOException {
+        if (file == null)
+            throw MESSAGES.illegalArgumentNull("file");
+
+        if (file instanceof ExtendedVirtualFile)
+            return ((ExtendedVirtualFile) file).getSize();
+        if (file.isFile() == false)
+            return 0;
+
+        InputStream input = file.openStream();
+        byte[] buffer = bufferPool.acquire();
+        try {
+            long size = 0;
+            int read;
+            while ((read = input.read(buffer)) >= 0)
+                size += read;
+            return size;
+        } finally {
+            bufferPool.release(buffer);
+            safeClose(input);
+        }
     }
 
+    /**
+     * Read the contents of the given entries of an archive.
+     *
+     * If the adaptor does not read them in a single pass, the entries are read one by one in the order of the given paths.
+     *
+     * @see ExtendedVirtualFile#readEntries(Collection, ExtendedVirtualFile.EntryHandler)
+     */
+    public static void readEntries(VirtualFile archive, Collection<String> paths, ExtendedVirtualFile.EntryHandler handler) throws IOException {
+        if (archive == null)
+            throw MESSAGES.illegalArgumentNull("archive");
+        if (paths == null)
+            throw MESSAGES.illegalArgumentNull("paths");
+        if (handler == null)
+            throw MESSAGES.illegalArgumentNull("handler");
+
+        if (archive instanceof ExtendedVirtualFile) {
+            ((ExtendedVirtualFile) archive).readEntries(paths, handler);
+            return;
+        }
+        for (String path : paths) {
+            VirtualFile child = archive.getChild(path);
+            if (child == null || child.isFile() == false)
+                continue;
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            InputStream input = child.openStream();
+            try {
+                copyStream(input, output);
+            } finally {
+                safeClose(input);
+            }
+            handler.handleEntry(path, ByteBuffer.wrap(output.toByteArray()).asReadOnlyBuffer());
+        }
+    }
+
+    /**
+     * Walk the descendants of the given file depth first.
+     *
+     * If the adaptor does not provide a walk of its own, the children of every directory are listed as the walk proceeds.
+     *
+     * @see ExtendedVirtualFile#visit(ExtendedVirtualFile.Visitor)
+     */
+    public static void visit(VirtualFile file, ExtendedVirtualFile.Visitor visitor) throws IOException {
+        if (file == null)
+            throw MESSAGES.illegalArgumentNull("file");
+        if (visitor == null)
+            throw MESSAGES.illegalArgumentNull("visitor");
+
+        if (file instanceof ExtendedVirtualFile)
+            ((ExtendedVirtualFile) file).visit(visitor);
+        else
+            visitChildren(file, file.getPathName().length(), visitor);
+    }
+
+    // Returns false if the walk was terminated
+    private static boolean visitChildren(VirtualFile dir, int prefixLength, ExtendedVirtualFile.Visitor visitor) throws IOException {
+        for (VirtualFile child : dir.getChildren()) {
+            String path = child.getPathName().substring(prefixLength);
+            if (path.startsWith("/"))
+                path = path.substring(1);
+            boolean isDirectory = child.isDirectory();
+            ExtendedVirtualFile.VisitResult result = ExtendedVirtualFile.VisitResult.CONTINUE;
+            if (visitor.accept(path, isDirectory))
+                result = visitor.visit(child);
+            if (result == ExtendedVirtualFile.VisitResult.TERMINATE)
+                return false;
+            if (isDirectory && result == ExtendedVirtualFile.VisitResult.CONTINUE && visitChildren(child, prefixLength, visitor) == false)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read the contents of the given entries of an archive into memory.
+     *
+     * @return the entry contents by path, in the order in which they are read
+     * @see #readEntries(VirtualFile, Collection, ExtendedVirtualFile.EntryHandler)
+     */
+    public static Map<String, byte[]> readEntries(VirtualFile archive, Collection<String> paths) throws IOException {
+        final Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        readEntries(archive, paths, new ExtendedVirtualFile.EntryHandler() {
+            public void handleEntry(String path, ByteBuffer content) {
+                byte[] bytes = new byte[content.remaining()];
+                content.get(bytes);
+                result.put(path, bytes);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Copy the input to the output. The streams are not closed, the output is flushed.
+     */
     public static void copyStream(InputStream is, OutputStream os) throws IOException {
+        copyStream(is, os, null);
+    }
+
+    /**
+     * Copy the input to the output. The streams are not closed, the output is flushed.
+     *
+     * Copies from a regular file to a file are transferred by the file channels. Other copies use the given buffer,
+     * or a pooled buffer if the given buffer is null.
+     *
+     * @return the number of bytes copied
+     * @throws IllegalArgumentException if the given buffer is empty
+     */
+    public static long copyStream(InputStream is, OutputStream os, byte[] buffer) throws IOException {
         if (is == null)
             throw MESSAGES.illegalArgumentNull("input");
         if (os == null)
             throw MESSAGES.illegalArgumentNull("output");
+        if (buffer != null && buffer.length == 0)
+            throw MESSAGES.illegalArgumentEmpty("buffer");
 
+        long count = 0;
+        byte[] pooled = null;
         try {
-            byte[] buff = new byte[65536];
+            if (is.getClass() == FileInputStream.class && os.getClass() == FileOutputStream.class)
+                count = transferFile(((FileInputStream) is).getChannel(), ((FileOutputStream) os).getChannel());
+
+            // Copy what is left, the source may have grown after the transfer
+            byte[] buff = buffer;
+            if (buff == null)
+                buff = pooled = bufferPool.acquire();
             int rc = is.read(buff);
             while (rc != -1) {
                 os.write(buff, 0, rc);
+                count += rc;
                 rc = is.read(buff);
             }
         } finally {
+            if (pooled != null)
+                bufferPool.release(pooled);
             os.flush();
         }
+        return count;
+    }
+
+    // Transfer nothing if the source is not seekable, such as a pipe, which is then copied by the buffered loop
+    private static long transferFile(FileChannel in, FileChannel out) throws IOException {
+        long start;
+        long size;
+        try {
+            start = in.position();
+            size = in.size();
+        } catch (IOException ex) {
+            return 0;
+        }
+        long position = start;
+        while (position < size) {
+            long count = in.transferTo(position, size - position, out);
+            if (count <= 0)
+                break;
+            position += count;
+        }
+        in.position(position);
+        return position - start;
     }
 
     /**
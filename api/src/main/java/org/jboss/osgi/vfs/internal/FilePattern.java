@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * JBossOSGi VFS API
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs.internal;
+
+import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A compiled file pattern as used by Bundle.findEntries(String path, String filePattern, boolean recurse).
+ *
+ * The pattern is matched against the simple entry name. The wildcard "*" matches any sequence of characters,
+ * a backslash escapes a literal "*" or "\". All other characters match themselves.
+ *
+ * This class is shared by the adaptor modules and is not part of the API.
+ *
+ * @since 17-Oct-2026
+ */
+public final class FilePattern {
+
+    private static final int MAX_CACHED_PATTERNS = 256;
+    private static final ConcurrentMap<String, FilePattern> cache = new ConcurrentHashMap<String, FilePattern>();
+
+    private enum Kind {
+        ANY, EQUALS, STARTS_WITH, ENDS_WITH, CONTAINS, GENERIC
+    }
+
+    private final Kind kind;
+    private final String[] literals;
+    private final String literal;
+    private final int minLength;
+
+    private FilePattern(Kind kind, String[] literals) {
+        this.kind = kind;
+        this.literals = literals;
+        this.literal = kind == Kind.GENERIC || kind == Kind.ANY ? null : literals[kind == Kind.ENDS_WITH || kind == Kind.CONTAINS ? 1 : 0];
+        int length = 0;
+        for (String lit : literals)
+            length += lit.length();
+        this.minLength = length;
+    }
+
+    /**
+     * Get the compiled pattern for the given file pattern. Compiled patterns are cached.
+     */
+    public static FilePattern compile(String filePattern) {
+        if (filePattern == null)
+            throw MESSAGES.illegalArgumentNull("filePattern");
+
+        FilePattern result = cache.get(filePattern);
+        if (result == null) {
+            result = parse(filePattern);
+            if (cache.size() >= MAX_CACHED_PATTERNS)
+                cache.clear();
+            cache.put(filePattern, result);
+        }
+        return result;
+    }
+
+    public boolean matches(String name) {
+        switch (kind) {
+            case ANY:
+                return true;
+            case EQUALS:
+                return name.equals(literal);
+            case STARTS_WITH:
+                return name.startsWith(literal);
+            case ENDS_WITH:
+                return name.endsWith(literal);
+            case CONTAINS:
+                return name.contains(literal);
+            default:
+                return matchesGeneric(name);
+        }
+    }
+
+    // The literals are separated by wildcards, the first must be a prefix and the last a suffix
+    private boolean matchesGeneric(String name) {
+        if (name.length() < minLength)
+            return false;
+
+        String first = literals[0];
+        String last = literals[literals.length - 1];
+        if (name.startsWith(first) == false || name.endsWith(last) == false)
+            return false;
+
+        int pos = first.length();
+        int end = name.length() - last.length();
+        for (int i = 1; i < literals.length - 1; i++) {
+            String lit = literals[i];
+            int idx = name.indexOf(lit, pos);
+            if (idx < 0 || idx + lit.length() > end)
+                return false;
+            pos = idx + lit.length();
+        }
+        return true;
+    }
+
+    private static FilePattern parse(String filePattern) {
+        List<String> literals = new ArrayList<String>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < filePattern.length(); i++) {
+            char ch = filePattern.charAt(i);
+            if (ch == '\\' && i + 1 < filePattern.length()) {
+                current.append(filePattern.charAt(++i));
+            } else if (ch == '*') {
+                literals.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(ch);
+            }
+        }
+        literals.add(current.toString());
+
+        // Collapse consecutive wildcards
+        List<String> collapsed = new ArrayList<String>();
+        for (int i = 0; i < literals.size(); i++) {
+            String lit = literals.get(i);
+            if (lit.length() > 0 || i == 0 || i == literals.size() - 1)
+                collapsed.add(lit);
+        }
+
+        String[] parts = collapsed.toArray(new String[collapsed.size()]);
+        int wildcards = parts.length - 1;
+        Kind kind;
+        if (wildcards == 0) {
+            kind = Kind.EQUALS;
+        } else if (wildcards == 1 && parts[0].length() == 0 && parts[1].length() == 0) {
+            kind = Kind.ANY;
+        } else if (wildcards == 1 && parts[0].length() == 0) {
+            kind = Kind.ENDS_WITH;
+        } else if (wildcards == 1 && parts[1].length() == 0) {
+            kind = Kind.STARTS_WITH;
+        } else if (wildcards == 2 && parts[0].length() == 0 && parts[2].length() == 0) {
+            kind = Kind.CONTAINS;
+        } else {
+            kind = Kind.GENERIC;
+        }
+        return new FilePattern(kind, parts);
+    }
+}
@@ -0,0 +1,707 @@
+/*
+ * #%L
+ * JBossOSGi VFS API
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs.internal;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import org.jboss.osgi.vfs.VFSUtils;
+
+/**
+ * The central directory of a zip archive that is held in a {@link ByteBuffer}.
+ *
+ * Entries are addressed by their path name without a trailing "/". The root of the archive is the
+ * empty path. Directories that have no entry of their own are added as synthetic directory entries.
+ *
+ * The table holds no objects per entry. An entry is the offset of its central directory record, the length
+ * of its name and its links to the first child and the next sibling. Names and all other attributes are read
+ * from the record in the buffer when needed. A synthetic directory refers to the record of its first descendant,
+ * whose name starts with the directory name. Lookups go through an open addressing hash table of the name bytes.
+ *
+ * The content of an entry is checked against the size and CRC-32 of its central directory record.
+ *
+ * This class is shared by the adaptor modules and is not part of the API.
+ *
+ * @since 17-Oct-2026
+ */
+public final class ZipDirectory {
+
+    public static final int NOT_FOUND = -1;
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+    public static final int METHOD_DIRECTORY = -1;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_LENGTH = 22;
+    private static final int CEN_LENGTH = 46;
+    private static final int LOC_LENGTH = 30;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    // Deflate cannot expand its input by more than this factor
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] META_INF = "META-INF/".getBytes(UTF8);
+
+    // The root has no central directory record
+    private static final int NO_RECORD = -1;
+
+    // The name length is shifted left by one, the low bit marks a directory
+    private static final int DIRECTORY_FLAG = 1;
+
+    private final ByteBuffer buffer;
+    private int count;
+    private int[] records;
+    private int[] names;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] slots;
+    private boolean signed;
+
+    private ZipDirectory(ByteBuffer buffer, int capacity) {
+        this.buffer = buffer;
+        this.records = new int[capacity];
+        this.names = new int[capacity];
+        this.firstChildren = new int[capacity];
+        this.nextSiblings = new int[capacity];
+        this.slots = new int[tableSize(capacity)];
+    }
+
+    /**
+     * Read the given archive file into the heap and parse its central directory.
+     *
+     * The archive is copied, so it may be replaced or truncated while the directory is in use.
+     *
+     * @throws ZipException if the archive is too large to read, or cannot be parsed
+     */
+    public static ZipDirectory read(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8)
+                throw new ZipException("Archive too large to read: " + file);
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0)
+                    throw new EOFException("Archive truncated while reading: " + file);
+            }
+            buffer.flip();
+            return parse(buffer);
+        } finally {
+            VFSUtils.safeClose(input);
+        }
+    }
+
+    /**
+     * Map the given archive file read-only and parse its central directory.
+     *
+     * Only for files that are owned by the VFS, such as the temp copy of a stream. A mapped file that is
+     * truncated by someone else fails every later access to the directory with an {@link InternalError}.
+     *
+     * @throws ZipException if the archive is too large to map, or cannot be parsed
+     */
+    public static ZipDirectory map(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new ZipException("Archive too large to map: " + file);
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            VFSUtils.safeClose(input);
+        }
+    }
+
+    /**
+     * Parse the central directory of the given archive.
+     *
+     * The directory keeps a reference to the archive, which must not be modified.
+     *
+     * @throws ZipException if the archive is not a zip, or uses features that are not supported (i.e. zip64)
+     */
+    public static ZipDirectory parse(ByteBuffer archive) throws ZipException {
+        ByteBuffer buffer = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int limit = buffer.limit();
+
+        // Locate the end of central directory record
+        int eocd = NOT_FOUND;
+        int minPos = Math.max(0, limit - EOCD_LENGTH - MAX_COMMENT_LENGTH);
+        for (int pos = limit - EOCD_LENGTH; pos >= minPos; pos--) {
+            if (buffer.getInt(pos) == EOCD_SIGNATURE) {
+                eocd = pos;
+                break;
+            }
+        }
+        if (eocd == NOT_FOUND)
+            throw new ZipException("End of central directory not found");
+
+        int total = buffer.getShort(eocd + 10) & 0xFFFF;
+        long cenSize = buffer.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long cenOffset = buffer.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (total == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL)
+            throw new ZipException("Zip64 archives not supported");
+        if (cenOffset + cenSize > eocd)
+            throw new ZipException("Invalid central directory");
+
+        ZipDirectory directory = new ZipDirectory(buffer, total + 16);
+        directory.add(NO_RECORD, 0, true);
+        int[] lastChildren = new int[directory.records.length];
+        int pos = (int) cenOffset;
+        for (int i = 0; i < total; i++) {
+            if (pos + CEN_LENGTH > eocd || buffer.getInt(pos) != CEN_SIGNATURE)
+                throw new ZipException("Invalid central directory entry");
+
+            int method = buffer.getShort(pos + 10) & 0xFFFF;
+            long compressedSize = buffer.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = buffer.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(pos + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(pos + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(pos + 32) & 0xFFFF;
+            long localHeaderOffset = buffer.getInt(pos + 42) & 0xFFFFFFFFL;
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL)
+                throw new ZipException("Zip64 archives not supported");
+            if (pos + CEN_LENGTH + nameLength > eocd)
+                throw new ZipException("Invalid central directory entry");
+
+            boolean isDirectory = nameLength > 0 && buffer.get(pos + CEN_LENGTH + nameLength - 1) == '/';
+            if (isDirectory == false && method != METHOD_STORED && method != METHOD_DEFLATED)
+                throw new ZipException("Unsupported compression method " + method + " for: " + directory.decode(pos + CEN_LENGTH, nameLength));
+
+            lastChildren = directory.addRecord(pos, isDirectory ? nameLength - 1 : nameLength, isDirectory, lastChildren);
+            pos += CEN_LENGTH + nameLength + extraLength + commentLength;
+        }
+        directory.trim();
+        return directory;
+    }
+
+    // Add the entry for a central directory record and any missing parent directories
+    private int[] addRecord(int record, int nameLength, boolean isDirectory, int[] lastChildren) {
+        int nameOffset = record + CEN_LENGTH;
+        int idx = find(nameOffset, nameLength);
+        if (idx != NOT_FOUND) {
+            // A synthetic directory that has a real entry after all
+            if (isDirectory && isDirectory(idx))
+                records[idx] = record;
+            return lastChildren;
+        }
+        if (nameLength == 0)
+            return lastChildren;
+
+        if (isDirectory == false && nameLength > META_INF.length && signed == false)
+            signed = isSignatureFile(nameOffset, nameLength);
+
+        // The parent name is a prefix of this name
+        int parentLength = nameLength - 1;
+        while (parentLength > 0 && buffer.get(nameOffset + parentLength) != '/')
+            parentLength--;
+        int parent = find(nameOffset, parentLength);
+        if (parent == NOT_FOUND) {
+            lastChildren = addRecord(record, parentLength, true, lastChildren);
+            parent = find(nameOffset, parentLength);
+        }
+
+        idx = add(record, nameLength, isDirectory);
+        if (lastChildren.length < records.length)
+            lastChildren = Arrays.copyOf(lastChildren, records.length);
+        if (lastChildren[parent] == 0)
+            firstChildren[parent] = idx;
+        else
+            nextSiblings[lastChildren[parent]] = idx;
+        lastChildren[parent] = idx;
+        return lastChildren;
+    }
+
+    private int add(int record, int nameLength, boolean isDirectory) {
+        if (count == records.length) {
+            int capacity = count * 2;
+            records = Arrays.copyOf(records, capacity);
+            names = Arrays.copyOf(names, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        }
+        int idx = count++;
+        records[idx] = record;
+        names[idx] = nameLength << 1 | (isDirectory ? DIRECTORY_FLAG : 0);
+        if (slots.length < tableSize(count))
+            rehash(tableSize(count));
+        insert(idx);
+        return idx;
+    }
+
+    private void trim() {
+        records = Arrays.copyOf(records, count);
+        names = Arrays.copyOf(names, count);
+        firstChildren = Arrays.copyOf(firstChildren, count);
+        nextSiblings = Arrays.copyOf(nextSiblings, count);
+    }
+
+    // Keep the load factor of the hash table below one half
+    private static int tableSize(int capacity) {
+        return Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+    }
+
+    private void rehash(int size) {
+        slots = new int[size];
+        for (int idx = 0; idx < count; idx++)
+            insert(idx);
+    }
+
+    // The slots hold the entry index plus one, zero marks a free slot
+    private void insert(int idx) {
+        int mask = slots.length - 1;
+        int slot = hash(getNameOffset(idx), getNameLength(idx)) & mask;
+        while (slots[slot] != 0)
+            slot = (slot + 1) & mask;
+        slots[slot] = idx + 1;
+    }
+
+    // Find the entry with the given name bytes in the buffer
+    private int find(int nameOffset, int nameLength) {
+        int mask = slots.length - 1;
+        int slot = hash(nameOffset, nameLength) & mask;
+        for (int entry = slots[slot]; entry != 0; entry = slots[slot]) {
+            int idx = entry - 1;
+            if (getNameLength(idx) == nameLength && regionEquals(getNameOffset(idx), nameOffset, nameLength))
+                return idx;
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    private int hash(int offset, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + (buffer.get(offset + i) & 0xFF);
+        return mix(hash);
+    }
+
+    private static int hash(byte[] bytes) {
+        int hash = 0;
+        for (byte b : bytes)
+            hash = 31 * hash + (b & 0xFF);
+        return mix(hash);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean regionEquals(int offset1, int offset2, int length) {
+        if (offset1 == offset2)
+            return true;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset1 + i) != buffer.get(offset2 + i))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isSignatureFile(int nameOffset, int nameLength) {
+        for (int i = 0; i < META_INF.length; i++) {
+            if (buffer.get(nameOffset + i) != META_INF[i])
+                return false;
+        }
+        for (int i = META_INF.length; i < nameLength; i++) {
+            if (buffer.get(nameOffset + i) == '/')
+                return false;
+        }
+        String upper = decode(nameOffset, nameLength).toUpperCase();
+        return upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC");
+    }
+
+    private int getNameOffset(int idx) {
+        return records[idx] + CEN_LENGTH;
+    }
+
+    private int getNameLength(int idx) {
+        return names[idx] >>> 1;
+    }
+
+    private String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = buffer.get(offset + i);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Get the index of the entry with the given path, or {@link #NOT_FOUND}.
+     */
+    public int lookup(String path) {
+        int length = path.length();
+        if (length == 0)
+            return 0;
+
+        // Plain ascii paths are matched without encoding them
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = path.charAt(i);
+            if (ch >= 0x80)
+                return lookup(path.getBytes(UTF8));
+            hash = 31 * hash + ch;
+        }
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        for (int entry = slots[slot]; entry != 0; entry = slots[slot]) {
+            int idx = entry - 1;
+            if (getNameLength(idx) == length && nameEquals(idx, path))
+                return idx;
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    private int lookup(byte[] bytes) {
+        int mask = slots.length - 1;
+        int slot = hash(bytes) & mask;
+        for (int entry = slots[slot]; entry != 0; entry = slots[slot]) {
+            int idx = entry - 1;
+            if (getNameLength(idx) == bytes.length && nameEquals(idx, bytes))
+                return idx;
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    private boolean nameEquals(int idx, String ascii) {
+        int offset = getNameOffset(idx);
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buffer.get(offset + i) != ascii.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean nameEquals(int idx, byte[] bytes) {
+        int offset = getNameOffset(idx);
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String getPath(int idx) {
+        return idx == 0 ? "" : decode(getNameOffset(idx), getNameLength(idx));
+    }
+
+    /**
+     * Get the first child of the given directory entry, or 0 if it has none.
+     */
+    public int getFirstChild(int idx) {
+        return firstChildren[idx];
+    }
+
+    /**
+     * Get the next entry in the same directory, or 0 if this is the last one.
+     */
+    public int getNextSibling(int idx) {
+        return nextSiblings[idx];
+    }
+
+    public boolean isDirectory(int idx) {
+        return (names[idx] & DIRECTORY_FLAG) != 0;
+    }
+
+    public int getMethod(int idx) {
+        return isDirectory(idx) ? METHOD_DIRECTORY : buffer.getShort(records[idx] + 10) & 0xFFFF;
+    }
+
+    public long getSize(int idx) {
+        return isDirectory(idx) ? 0 : buffer.getInt(records[idx] + 24) & 0xFFFFFFFFL;
+    }
+
+    public long getCompressedSize(int idx) {
+        return isDirectory(idx) ? 0 : buffer.getInt(records[idx] + 20) & 0xFFFFFFFFL;
+    }
+
+    public long getLocalHeaderOffset(int idx) {
+        return isDirectory(idx) ? -1 : buffer.getInt(records[idx] + 42) & 0xFFFFFFFFL;
+    }
+
+    public long getCrc(int idx) {
+        return isDirectory(idx) ? 0 : buffer.getInt(records[idx] + 16) & 0xFFFFFFFFL;
+    }
+
+    public long getLastModified(int idx) {
+        return idx == 0 ? 0 : dosToJavaTime(buffer.getInt(records[idx] + 12) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * True if the archive contains signature files, which cannot be verified from the central directory.
+     */
+    public boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     * Get the simple names of the children of the given directory path.
+     */
+    public List<String> getChildNames(String dirPath) {
+        int dirIdx = lookup(dirPath);
+        if (dirIdx == NOT_FOUND || firstChildren[dirIdx] == 0)
+            return Collections.<String> emptyList();
+
+        int prefixLength = dirIdx == 0 ? 0 : getNameLength(dirIdx) + 1;
+        List<String> result = new ArrayList<String>();
+        for (int idx = firstChildren[dirIdx]; idx != 0; idx = nextSiblings[idx])
+            result.add(decode(getNameOffset(idx) + prefixLength, getNameLength(idx) - prefixLength));
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Get the offset of the entry data, which follows the local file header.
+     */
+    public long getDataOffset(int idx) throws ZipException {
+        long offset = getLocalHeaderOffset(idx);
+        if (offset < 0 || offset + LOC_LENGTH > buffer.limit() || buffer.getInt((int) offset) != LOC_SIGNATURE)
+            throw new ZipException("Invalid local file header for: " + getPath(idx));
+
+        int nameLength = buffer.getShort((int) offset + 26) & 0xFFFF;
+        int extraLength = buffer.getShort((int) offset + 28) & 0xFFFF;
+        long dataOffset = offset + LOC_LENGTH + nameLength + extraLength;
+        if (dataOffset + getCompressedSize(idx) > buffer.limit())
+            throw new ZipException("Truncated entry data for: " + getPath(idx));
+        return dataOffset;
+    }
+
+    /**
+     * Open the content of the entry with the given index.
+     *
+     * The stream fails with a {@link ZipException} at its end if the content does not match the entry.
+     */
+    public InputStream openEntry(int idx) throws IOException {
+        ByteBuffer data = getEntryData(idx);
+        if (getMethod(idx) == METHOD_STORED)
+            return new CheckedEntryInputStream(new ByteBufferInputStream(data, false), idx);
+
+        final Inflater inflater = new Inflater(true);
+        int bufferSize = (int) Math.max(64, Math.min(getCompressedSize(idx) + 1, 8192));
+        return new CheckedEntryInputStream(new InflaterInputStream(new ByteBufferInputStream(data, true), inflater, bufferSize) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed == false) {
+                    closed = true;
+                    inflater.end();
+                    super.close();
+                }
+            }
+        }, idx);
+    }
+
+    /**
+     * Read the content of the entry with the given index. Stored entries are returned without a copy.
+     *
+     * @param inflater the inflater for compressed entries, which is reset before use
+     * @return a read-only buffer with the entry content
+     * @throws ZipException if the content does not match the entry
+     */
+    public ByteBuffer readEntry(int idx, Inflater inflater) throws IOException {
+        ByteBuffer data = getEntryData(idx);
+        if (getMethod(idx) == METHOD_STORED) {
+            if (data.remaining() != getSize(idx))
+                throw new ZipException("Invalid entry size for: " + getPath(idx));
+            checkCrc(idx, data);
+            return data.asReadOnlyBuffer();
+        }
+
+        // The declared size is only trusted as far as the compressed data can expand to it
+        long size = getSize(idx);
+        if (size > Integer.MAX_VALUE - 8 || size > (long) data.remaining() * MAX_DEFLATE_RATIO + 64)
+            throw new ZipException("Invalid entry size for: " + getPath(idx));
+
+        byte[] input = new byte[data.remaining() + 1];
+        data.get(input, 0, input.length - 1);
+        byte[] output = new byte[(int) size];
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            int count = 0;
+            while (count < output.length) {
+                int inflated = inflater.inflate(output, count, output.length - count);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                count += inflated;
+            }
+            if (count != output.length)
+                throw new ZipException("Invalid entry size for: " + getPath(idx));
+        } catch (DataFormatException ex) {
+            ZipException zipex = new ZipException("Invalid entry data for: " + getPath(idx));
+            zipex.initCause(ex);
+            throw zipex;
+        }
+        ByteBuffer content = ByteBuffer.wrap(output);
+        checkCrc(idx, content);
+        return content.asReadOnlyBuffer();
+    }
+
+    private void checkCrc(int idx, ByteBuffer content) throws ZipException {
+        CRC32 crc = new CRC32();
+        if (content.hasArray()) {
+            crc.update(content.array(), content.arrayOffset() + content.position(), content.remaining());
+        } else {
+            ByteBuffer data = content.duplicate();
+            byte[] chunk = new byte[Math.min(data.remaining(), 8192)];
+            while (data.hasRemaining()) {
+                int length = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+        }
+        if (crc.getValue() != getCrc(idx))
+            throw new ZipException("Invalid entry CRC for: " + getPath(idx));
+    }
+
+    private ByteBuffer getEntryData(int idx) throws ZipException {
+        long dataOffset = getDataOffset(idx);
+        ByteBuffer data = buffer.duplicate();
+        data.position((int) dataOffset);
+        data.limit((int) (dataOffset + getCompressedSize(idx)));
+        return data.slice();
+    }
+
+    // Checks the size and CRC-32 of the entry content once the stream reached its end
+    private final class CheckedEntryInputStream extends FilterInputStream {
+
+        private final int idx;
+        private final CRC32 crc = new CRC32();
+        private long count;
+
+        CheckedEntryInputStream(InputStream input, int idx) {
+            super(input);
+            this.idx = idx;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                check();
+            } else {
+                crc.update(b);
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read < 0) {
+                check();
+            } else {
+                crc.update(b, off, read);
+                count += read;
+            }
+            return read;
+        }
+
+        // Skipped content must still be checked
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] chunk = new byte[(int) Math.max(1, Math.min(n, 8192))];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(chunk, 0, (int) Math.min(chunk.length, n - skipped));
+                if (read < 0)
+                    break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(int readlimit) {
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        private void check() throws ZipException {
+            if (count != getSize(idx))
+                throw new ZipException("Invalid entry size for: " + getPath(idx));
+            if (crc.getValue() != getCrc(idx))
+                throw new ZipException("Invalid entry CRC for: " + getPath(idx));
+        }
+    }
+
+    private static long dosToJavaTime(long dosTime) {
+        @SuppressWarnings("deprecation")
+        java.util.Date date = new java.util.Date((int) (((dosTime >> 25) & 0x7f) + 80), (int) (((dosTime >> 21) & 0x0f) - 1),
+                (int) ((dosTime >> 16) & 0x1f), (int) ((dosTime >> 11) & 0x1f), (int) ((dosTime >> 5) & 0x3f),
+                (int) ((dosTime << 1) & 0x3e));
+        return date.getTime();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * JBossOSGi VFS Benchmarks
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Generates bundle archives of a configurable shape for the benchmarks.
+ *
+ * @since 17-Oct-2026
+ */
+final class ArchiveGenerator {
+
+    static final String SYMBOLIC_NAME = "benchmark-bundle";
+
+    private final int entries;
+    private final int depth;
+    private final boolean compressed;
+    private final List<String> filePaths = new ArrayList<String>();
+    private final Set<String> dirPaths = new LinkedHashSet<String>();
+
+    /**
+     * @param entries the number of file entries
+     * @param depth the depth of the package tree below the root package
+     * @param compressed whether file entries are deflated or stored
+     */
+    ArchiveGenerator(int entries, int depth, boolean compressed) {
+        this.entries = entries;
+        this.depth = depth;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Write the archive to a new temp file.
+     */
+    File createArchive() throws IOException {
+        File archive = File.createTempFile("benchmark-" + entries + "-" + depth + "-", ".jar");
+        archive.deleteOnExit();
+
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", SYMBOLIC_NAME);
+        attributes.putValue("Bundle-Version", "1.0.0");
+
+        // Spread the entries evenly over a tree of the given depth
+        int fanout = Math.max(2, (int) Math.ceil(Math.pow(entries / 16.0, 1.0 / Math.max(1, depth))));
+        Random random = new Random(entries);
+        byte[] content = new byte[2048];
+
+        JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(archive), manifest);
+        try {
+            for (int i = 0; i < entries; i++) {
+                StringBuilder dir = new StringBuilder("org/jboss/test/");
+                int bucket = i / 16;
+                for (int level = 0; level < depth; level++) {
+                    dir.append("p").append(bucket % fanout).append('/');
+                    bucket /= fanout;
+                }
+                String dirPath = dir.toString();
+                if (dirPaths.add(dirPath))
+                    putEntry(jarOut, new JarEntry(dirPath), new byte[0], 0);
+
+                String suffix = i % 4 == 3 ? ".properties" : ".class";
+                String path = dirPath + "Entry" + i + suffix;
+                filePaths.add(path);
+
+                // Half random half repeated content compresses roughly like class files
+                int length = 512 + random.nextInt(content.length - 512);
+                for (int k = 0; k < length; k++)
+                    content[k] = (byte) (k % 2 == 0 ? random.nextInt(256) : 'a' + k % 16);
+                putEntry(jarOut, new JarEntry(path), content, length);
+            }
+        } finally {
+            jarOut.close();
+        }
+        return archive;
+    }
+
+    /**
+     * The paths of all generated file entries, in archive order.
+     */
+    List<String> getFilePaths() {
+        return filePaths;
+    }
+
+    /**
+     * The paths of all generated directory entries, in archive order.
+     */
+    List<String> getDirectoryPaths() {
+        return new ArrayList<String>(dirPaths);
+    }
+
+    private void putEntry(JarOutputStream jarOut, ZipEntry entry, byte[] content, int length) throws IOException {
+        if (compressed == false) {
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, length);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(length);
+            entry.setCompressedSize(length);
+            entry.setCrc(crc.getValue());
+        }
+        jarOut.putNextEntry(entry);
+        jarOut.write(content, 0, length);
+        jarOut.closeEntry();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * #%L
+ * JBossOSGi VFS Benchmarks
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.jboss.osgi.vfs.AbstractVFS;
+import org.jboss.osgi.vfs.ExtendedVirtualFile;
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.vfs.VirtualFile;
+import org.jboss.osgi.vfs.nio.NioVFSAdaptor;
+import org.jboss.osgi.vfs30.VFSAdaptor30;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the {@link VirtualFile} operations the OSGi layer depends on, against a mounted archive.
+ *
+ * Each adaptor runs in its own fork, as the adaptor cannot be changed once it is loaded.
+ *
+ * @since 17-Oct-2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualFileBenchmark {
+
+    @Param({ "1000", "10000" })
+    int entries;
+
+    @Param({ "4" })
+    int depth;
+
+    @Param({ "true", "false" })
+    boolean compressed;
+
+    @Param({ "vfs30", "nio" })
+    String adaptor;
+
+    private File archive;
+    private URL archiveURL;
+    private VirtualFile root;
+    private String[] filePaths;
+    private String lookupDir;
+    private List<String> batchPaths;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        AbstractVFS.setVFSAdaptor("nio".equals(adaptor) ? new NioVFSAdaptor() : new VFSAdaptor30());
+
+        ArchiveGenerator generator = new ArchiveGenerator(entries, depth, compressed);
+        archive = generator.createArchive();
+        archiveURL = archive.toURI().toURL();
+
+        // A power of two sample of entry paths in random order
+        List<String> paths = generator.getFilePaths();
+        filePaths = new String[Integer.highestOneBit(paths.size())];
+        Random random = new Random(0);
+        for (int i = 0; i < filePaths.length; i++)
+            filePaths[i] = paths.get(random.nextInt(paths.size()));
+
+        batchPaths = Arrays.asList(filePaths).subList(0, Math.min(64, filePaths.length));
+
+        List<String> dirs = generator.getDirectoryPaths();
+        lookupDir = dirs.get(dirs.size() / 2);
+
+        // Mount the archive up front
+        root = AbstractVFS.toVirtualFile(archiveURL);
+        if (root.getChild(JarFile.MANIFEST_NAME) == null)
+            throw new IllegalStateException("No manifest in: " + archive);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        root.close();
+        archive.delete();
+    }
+
+    @Benchmark
+    public VirtualFile toVirtualFile() throws IOException {
+        // Resolves to the registered root adaptor
+        return AbstractVFS.toVirtualFile(archiveURL);
+    }
+
+    @Benchmark
+    public VirtualFile getChild() throws IOException {
+        return root.getChild(nextPath());
+    }
+
+    @Benchmark
+    public VirtualFile getChildNotFound() throws IOException {
+        return root.getChild(nextPath() + ".missing");
+    }
+
+    @Benchmark
+    public int findEntriesRecursive(Blackhole blackhole) throws IOException {
+        return drain(root.findEntries("/", "*.class", true), blackhole);
+    }
+
+    @Benchmark
+    public URL findEntriesFirst() throws IOException {
+        return root.findEntries("/", "*.properties", true).nextElement();
+    }
+
+    @Benchmark
+    public int getEntryPathsRoot(Blackhole blackhole) throws IOException {
+        return drain(root.getEntryPaths("/"), blackhole);
+    }
+
+    @Benchmark
+    public int getEntryPathsPackage(Blackhole blackhole) throws IOException {
+        return drain(root.getEntryPaths(lookupDir), blackhole);
+    }
+
+    @Benchmark
+    public URL getStreamURL() throws IOException {
+        return root.getStreamURL();
+    }
+
+    @Benchmark
+    public long openStream() throws IOException {
+        return readFully(root.openStream());
+    }
+
+    @Benchmark
+    public long openEntryStream() throws IOException {
+        return readFully(root.getChild(nextPath()).openStream());
+    }
+
+    @Benchmark
+    public long readEntriesLoop() throws IOException {
+        long total = 0;
+        for (String path : batchPaths)
+            total += readFully(root.getChild(path).openStream());
+        return total;
+    }
+
+    @Benchmark
+    public long readEntriesBatch() throws IOException {
+        final long[] total = new long[1];
+        VFSUtils.readEntries(root, batchPaths, new ExtendedVirtualFile.EntryHandler() {
+            public void handleEntry(String path, ByteBuffer content) {
+                total[0] += content.remaining();
+            }
+        });
+        return total[0];
+    }
+
+    @Benchmark
+    public Manifest getManifest() throws IOException {
+        return VFSUtils.getManifest(root);
+    }
+
+    private String nextPath() {
+        return filePaths[next++ & (filePaths.length - 1)];
+    }
+
+    private static <T> int drain(Enumeration<T> en, Blackhole blackhole) {
+        int count = 0;
+        while (en != null && en.hasMoreElements()) {
+            blackhole.consume(en.nextElement());
+            count++;
+        }
+        return count;
+    }
+
+    private static long readFully(InputStream input) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        try {
+            int read;
+            while ((read = input.read(buffer)) != -1)
+                total += read;
+        } finally {
+            input.close();
+        }
+        return total;
+    }
+}
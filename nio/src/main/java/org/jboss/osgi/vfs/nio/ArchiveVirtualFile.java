@@ -0,0 +1,204 @@
+/*
+ * #%L
+ * JBossOSGi VFS NIO
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+
+import org.jboss.osgi.vfs.VFSMetrics;
+import org.jboss.osgi.vfs.VFSMetrics.Operation;
+
+/**
+ * A virtual file for an entry of a {@link ZipArchive}.
+ *
+ * Archives that are read from a stream are held in memory and this virtual file is also their root.
+ *
+ * @since 17-Oct-2026
+ */
+final class ArchiveVirtualFile extends NioVirtualFile {
+
+    private final ZipArchive archive;
+    private final int idx;
+    private final String name;
+
+    /**
+     * Create the root of an archive that was read from a stream.
+     *
+     * @throws ZipException if the content is not a supported zip archive
+     */
+    ArchiveVirtualFile(String name, ByteBuffer content) throws ZipException {
+        this.name = name;
+        this.idx = 0;
+        this.archive = ZipArchive.wrap(this, content);
+    }
+
+    ArchiveVirtualFile(ZipArchive archive, int idx) {
+        String path = archive.getDirectory().getPath(idx);
+        this.archive = archive;
+        this.idx = idx;
+        this.name = path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private String getEntryPath() {
+        return archive.getDirectory().getPath(idx);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getPathName() {
+        if (idx == 0)
+            return "/" + name;
+        return archive.getRoot().getPathName() + "/" + getEntryPath();
+    }
+
+    @Override
+    public boolean isFile() {
+        return archive.getDirectory().isDirectory(idx) == false;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return archive.getDirectory().isDirectory(idx);
+    }
+
+    @Override
+    public long getLastModified() {
+        return archive.getDirectory().getLastModified(idx);
+    }
+
+    @Override
+    public long getSize() {
+        return archive.getDirectory().getSize(idx);
+    }
+
+    @Override
+    public URL toURL() throws IOException {
+        return archive.toURL(idx);
+    }
+
+    @Override
+    public URL getStreamURL() throws IOException {
+        if (idx == 0)
+            return toURL();
+        return super.getStreamURL();
+    }
+
+    @Override
+    public NioVirtualFile getParent() {
+        if (idx == 0)
+            return null;
+        String path = getEntryPath();
+        int slash = path.lastIndexOf('/');
+        return archive.getEntry(slash < 0 ? "" : path.substring(0, slash));
+    }
+
+    @Override
+    List<NioVirtualFile> getChildNodes() {
+        if (isDirectory() == false)
+            return Collections.emptyList();
+        return archive.getChildEntries(idx);
+    }
+
+    @Override
+    NioVirtualFile getChildNode(String path) {
+        if (isDirectory() == false)
+            return null;
+        return archive.getEntry(idx == 0 ? path : getEntryPath() + "/" + path);
+    }
+
+    @Override
+    ZipArchive getArchive() {
+        return archive;
+    }
+
+    @Override
+    int getArchiveIndex() {
+        return idx;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        long start = VFSMetrics.start();
+        try {
+            return idx == 0 ? archive.openArchive() : archive.openEntry(idx);
+        } finally {
+            VFSMetrics.completed(Operation.OPEN_STREAM, start);
+        }
+    }
+
+    @Override
+    public CodeSigner[] getCodeSigners() {
+        return archive.getCodeSigners(idx);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof ArchiveVirtualFile))
+            return false;
+
+        // The root of a streamed archive is only equal to itself
+        ArchiveVirtualFile other = (ArchiveVirtualFile) obj;
+        if (idx == 0 || other.idx == 0)
+            return false;
+        return getEntryPath().equals(other.getEntryPath()) && archive.getRoot().equals(other.archive.getRoot());
+    }
+
+    @Override
+    public int hashCode() {
+        if (idx == 0)
+            return System.identityHashCode(this);
+        return archive.getRoot().hashCode() * 31 + getEntryPath().hashCode();
+    }
+}
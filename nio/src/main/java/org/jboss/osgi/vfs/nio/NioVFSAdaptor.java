@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * JBossOSGi VFS NIO
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs.nio;
+
+import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.jboss.osgi.vfs.AdaptorPriority;
+import org.jboss.osgi.vfs.VFSAdaptor;
+import org.jboss.osgi.vfs.VFSMetrics;
+import org.jboss.osgi.vfs.VFSMetrics.Operation;
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.vfs.VirtualFile;
+
+/**
+ * An adaptor that is based on java.nio.file and an in-memory zip reader.
+ *
+ * Archive files and streamed archives are held in memory, there are no temp file copies
+ * and no global mount table. Archive entries have <code>jar:</code> URLs, entries of streamed archives have
+ * URLs with a private protocol handler.
+ *
+ * @since 17-Oct-2026
+ */
+@AdaptorPriority(50)
+public final class NioVFSAdaptor implements VFSAdaptor {
+
+    private static final String JAR_SEPARATOR = "!/";
+
+    @Override
+    public VirtualFile toVirtualFile(URL url) throws IOException {
+        if (url == null)
+            throw MESSAGES.illegalArgumentNull("url");
+        try {
+            return toVirtualFile(url.toURI());
+        } catch (URISyntaxException ex) {
+            // A file URL with unescaped characters
+            if ("file".equals(url.getProtocol()))
+                return new PathVirtualFile(Paths.get(url.getPath()), true);
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public VirtualFile toVirtualFile(URI uri) throws IOException {
+        if (uri == null)
+            throw MESSAGES.illegalArgumentNull("uri");
+
+        // A jar URL addresses an entry of the archive file
+        if ("jar".equals(uri.getScheme())) {
+            String spec = uri.getRawSchemeSpecificPart();
+            int sep = spec.indexOf(JAR_SEPARATOR);
+            String archive = sep < 0 ? spec : spec.substring(0, sep);
+            String path = sep < 0 ? "" : spec.substring(sep + JAR_SEPARATOR.length());
+            VirtualFile root = toVirtualFile(URI.create(archive));
+            VirtualFile child = root.getChild(URI.create(path).getPath());
+            if (child == null)
+                throw new IOException("Entry not found: " + uri);
+            return child;
+        }
+
+        try {
+            return new PathVirtualFile(Paths.get(uri), true);
+        } catch (RuntimeException ex) {
+            throw new IOException("Cannot access: " + uri, ex);
+        }
+    }
+
+    @Override
+    public VirtualFile toVirtualFile(String name, InputStream input) throws IOException {
+        if (name == null)
+            throw MESSAGES.illegalArgumentNull("name");
+        if (input == null)
+            throw MESSAGES.illegalArgumentNull("input");
+
+        long start = VFSMetrics.start();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            VFSUtils.copyStream(input, bytes);
+        } finally {
+            VFSUtils.safeClose(input);
+        }
+        VirtualFile result = new ArchiveVirtualFile(name, ByteBuffer.wrap(bytes.toByteArray()));
+        VFSMetrics.completed(Operation.MOUNT, start);
+        return result;
+    }
+
+    @Override
+    public VirtualFile toVirtualFile(InputStream input) throws IOException {
+        String name = "stream" + System.currentTimeMillis();
+        return toVirtualFile(name, input);
+    }
+
+    /**
+     * Adapt a {@link Path} or a {@link File} to a virtual file.
+     */
+    @Override
+    public VirtualFile adapt(Object other) {
+        if (other == null)
+            return null;
+
+        if (other instanceof Path)
+            return new PathVirtualFile((Path) other, true);
+        if (other instanceof File)
+            return new PathVirtualFile(((File) other).toPath(), true);
+
+        throw MESSAGES.illegalArgumentNoVirtualFile(other);
+    }
+
+    /**
+     * Get the {@link Path} of a virtual file, or null for entries of an archive.
+     */
+    @Override
+    public Object adapt(VirtualFile absFile) {
+        if (absFile == null)
+            return null;
+
+        if (absFile instanceof PathVirtualFile)
+            return ((PathVirtualFile) absFile).getPath();
+        if (absFile instanceof ArchiveVirtualFile)
+            return null;
+
+        throw MESSAGES.illegalArgumentNoVirtualFile(absFile);
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * #%L
+ * JBossOSGi VFS NIO
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs.nio;
+
+import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.security.cert.Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.jboss.osgi.vfs.ExtendedVirtualFile;
+import org.jboss.osgi.vfs.VFSMetrics;
+import org.jboss.osgi.vfs.VFSMetrics.Operation;
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.vfs.VirtualFile;
+import org.jboss.osgi.vfs.internal.FilePattern;
+
+/**
+ * The common base of the java.nio based virtual files.
+ *
+ * Subclasses provide the tree structure, the tree walks are implemented here.
+ *
+ * @since 17-Oct-2026
+ */
+abstract class NioVirtualFile implements ExtendedVirtualFile {
+
+    private volatile byte[] streamJar;
+
+    /**
+     * Get the direct children, which is empty for a file.
+     */
+    abstract List<NioVirtualFile> getChildNodes() throws IOException;
+
+    /**
+     * Get the descendant with the given relative path, or null if it does not exist.
+     *
+     * @param path a non-empty path that does not start with "/"
+     */
+    abstract NioVirtualFile getChildNode(String path) throws IOException;
+
+    /**
+     * Get the archive and the entry index if this virtual file is served from a zip archive, or null.
+     */
+    abstract ZipArchive getArchive() throws IOException;
+
+    abstract int getArchiveIndex();
+
+    @Override
+    public URL getStreamURL() throws IOException {
+        long start = VFSMetrics.start();
+        try {
+            if (isFile())
+                return toURL();
+
+            byte[] bytes = streamJar;
+            if (bytes == null) {
+                synchronized (this) {
+                    bytes = streamJar;
+                    if (bytes == null) {
+                        long buildStart = VFSMetrics.start();
+                        bytes = buildStoredJar();
+                        VFSMetrics.completed(Operation.BUILD_STREAM_JAR, buildStart);
+                        streamJar = bytes;
+                    }
+                }
+            }
+            final byte[] content = bytes;
+            return new URL(ZipArchive.PROTOCOL, "", -1, "/" + getName(), new URLStreamHandler() {
+                @Override
+                protected URLConnection openConnection(URL url) {
+                    return new URLConnection(url) {
+                        @Override
+                        public void connect() {
+                            connected = true;
+                        }
+
+                        @Override
+                        public InputStream getInputStream() {
+                            return new ByteArrayInputStream(content);
+                        }
+
+                        @Override
+                        public int getContentLength() {
+                            return content.length;
+                        }
+                    };
+                }
+            });
+        } finally {
+            VFSMetrics.completed(Operation.GET_STREAM_URL, start);
+        }
+    }
+
+    // Pack the directory into a jar with stored (uncompressed) entries, the manifest must be the first entry
+    private byte[] buildStoredJar() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream jarOut = new ZipOutputStream(bytes);
+        try {
+            jarOut.setMethod(ZipOutputStream.STORED);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            NioVirtualFile manifest = getChildNode(JarFile.MANIFEST_NAME);
+            if (manifest != null && manifest.isFile()) {
+                putStoredEntry(jarOut, "META-INF/", null);
+                putStoredEntry(jarOut, JarFile.MANIFEST_NAME, readContent(manifest, buffer));
+            }
+            for (VirtualFile child : getChildrenRecursively()) {
+                String path = getRelativePath(child);
+                if (path.equals(JarFile.MANIFEST_NAME) || (manifest != null && path.equals("META-INF/")))
+                    continue;
+                putStoredEntry(jarOut, path, child.isDirectory() ? null : readContent(child, buffer));
+            }
+        } finally {
+            jarOut.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ByteArrayOutputStream readContent(VirtualFile file, ByteArrayOutputStream buffer) throws IOException {
+        buffer.reset();
+        InputStream input = file.openStream();
+        try {
+            VFSUtils.copyStream(input, buffer);
+        } finally {
+            VFSUtils.safeClose(input);
+        }
+        return buffer;
+    }
+
+    private static void putStoredEntry(ZipOutputStream jarOut, String name, ByteArrayOutputStream content) throws IOException {
+        byte[] bytes = content != null ? content.toByteArray() : new byte[0];
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        jarOut.putNextEntry(entry);
+        jarOut.write(bytes);
+        jarOut.closeEntry();
+    }
+
+    @Override
+    public VirtualFile getChild(String path) throws IOException {
+        long start = VFSMetrics.start();
+        try {
+            if (path == null)
+                throw MESSAGES.illegalArgumentNull("path");
+
+            path = normalize(path);
+            if (path == null)
+                return null;
+            return path.length() > 0 ? getChildNode(path) : this;
+        } finally {
+            VFSMetrics.completed(Operation.GET_CHILD, start);
+        }
+    }
+
+    @Override
+    public List<VirtualFile> getChildren() throws IOException {
+        return Collections.<VirtualFile> unmodifiableList(getChildNodes());
+    }
+
+    @Override
+    public List<VirtualFile> getChildrenRecursively() throws IOException {
+        List<VirtualFile> files = new ArrayList<VirtualFile>();
+        addChildrenRecursively(this, files);
+        return Collections.unmodifiableList(files);
+    }
+
+    private static void addChildrenRecursively(NioVirtualFile file, List<VirtualFile> files) throws IOException {
+        for (NioVirtualFile child : file.getChildNodes()) {
+            files.add(child);
+            if (child.isDirectory())
+                addChildrenRecursively(child, files);
+        }
+    }
+
+    @Override
+    public void visit(Visitor visitor) throws IOException {
+        if (visitor == null)
+            throw MESSAGES.illegalArgumentNull("visitor");
+
+        visitChildren(this, getPathName().length() + 1, visitor);
+    }
+
+    private static boolean visitChildren(NioVirtualFile file, int prefixLength, Visitor visitor) throws IOException {
+        for (NioVirtualFile child : file.getChildNodes()) {
+            boolean isDirectory = child.isDirectory();
+            VisitResult result = VisitResult.CONTINUE;
+            if (visitor.accept(child.getPathName().substring(prefixLength), isDirectory))
+                result = visitor.visit(child);
+            if (result == VisitResult.TERMINATE)
+                return false;
+            if (isDirectory && result == VisitResult.CONTINUE && visitChildren(child, prefixLength, visitor) == false)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Enumeration<URL> findEntries(String path, String pattern, boolean recurse) throws IOException {
+        long start = VFSMetrics.start();
+        try {
+            if (path == null)
+                throw MESSAGES.illegalArgumentNull("path");
+
+            if (pattern == null)
+                pattern = "*";
+
+            path = normalize(path);
+            if (path == null)
+                return null;
+            NioVirtualFile dir = path.length() > 0 ? getChildNode(path) : this;
+            if (dir == null)
+                return null;
+
+            return new FindEntriesEnumeration(dir, FilePattern.compile(pattern), recurse);
+        } finally {
+            VFSMetrics.completed(Operation.FIND_ENTRIES, start);
+        }
+    }
+
+    @Override
+    public Enumeration<String> getEntryPaths(String path) throws IOException {
+        long start = VFSMetrics.start();
+        try {
+            if (path == null)
+                throw MESSAGES.illegalArgumentNull("path");
+
+            path = normalize(path);
+            if (path == null)
+                return null;
+            NioVirtualFile dir = path.length() > 0 ? getChildNode(path) : this;
+            if (dir == null)
+                return null;
+
+            List<String> paths = new ArrayList<String>();
+            for (NioVirtualFile child : dir.getChildNodes())
+                paths.add(getRelativePath(child));
+            return Collections.enumeration(paths);
+        } finally {
+            VFSMetrics.completed(Operation.GET_ENTRY_PATHS, start);
+        }
+    }
+
+    // The path relative to this file, directory paths end with a "/"
+    private String getRelativePath(VirtualFile file) throws IOException {
+        String result = file.getPathName().substring(getPathName().length());
+        if (result.startsWith("/"))
+            result = result.substring(1);
+        if (file.isDirectory() && result.endsWith("/") == false)
+            result += "/";
+        return result;
+    }
+
+    @Override
+    public void readEntries(Collection<String> paths, EntryHandler handler) throws IOException {
+        if (paths == null)
+            throw MESSAGES.illegalArgumentNull("paths");
+        if (handler == null)
+            throw MESSAGES.illegalArgumentNull("handler");
+
+        ZipArchive archive = getArchive();
+        if (archive != null) {
+            String prefix = archive.getDirectory().getPath(getArchiveIndex());
+            archive.readEntries(prefix.length() > 0 ? prefix + "/" : prefix, paths, handler);
+            return;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (String path : paths) {
+            VirtualFile child = getChild(path);
+            if (child != null && child.isFile())
+                handler.handleEntry(path, ByteBuffer.wrap(readContent(child, buffer).toByteArray()).asReadOnlyBuffer());
+        }
+    }
+
+    @Override
+    public Certificate[] getCertificates() {
+        CodeSigner[] signers = getCodeSigners();
+        if (signers == null)
+            return null;
+
+        List<Certificate> certs = new ArrayList<Certificate>();
+        for (CodeSigner signer : signers)
+            certs.addAll(signer.getSignerCertPath().getCertificates());
+        return certs.toArray(new Certificate[certs.size()]);
+    }
+
+    @Override
+    public void close() {
+        VFSUtils.evictManifest(this);
+        streamJar = null;
+    }
+
+    @Override
+    public String toString() {
+        return getPathName();
+    }
+
+    /**
+     * Get the path without leading or trailing "/" and with "." and ".." segments resolved.
+     *
+     * @return the normalized path, or null if the path leaves the root
+     */
+    static String normalize(String path) {
+        if (path.indexOf("./") < 0 && path.indexOf("//") < 0 && path.endsWith(".") == false) {
+            int start = 0;
+            int end = path.length();
+            while (start < end && path.charAt(start) == '/')
+                start++;
+            while (end > start && path.charAt(end - 1) == '/')
+                end--;
+            return path.substring(start, end);
+        }
+
+        Deque<String> segments = new ArrayDeque<String>();
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                if (segments.isEmpty())
+                    return null;
+                segments.removeLast();
+            } else if (segment.length() > 0 && segment.equals(".") == false) {
+                segments.addLast(segment);
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        for (String segment : segments) {
+            if (result.length() > 0)
+                result.append('/');
+            result.append(segment);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Walks the tree in preorder and matches the simple names against the file pattern.
+     */
+    private static class FindEntriesEnumeration implements Enumeration<URL> {
+
+        private final FilePattern filter;
+        private final boolean recurse;
+        private final Deque<Iterator<NioVirtualFile>> stack = new ArrayDeque<Iterator<NioVirtualFile>>();
+        private NioVirtualFile matchFile;
+
+        FindEntriesEnumeration(NioVirtualFile dir, FilePattern filter, boolean recurse) throws IOException {
+            this.filter = filter;
+            this.recurse = recurse;
+            this.stack.push(dir.getChildNodes().iterator());
+        }
+
+        public boolean hasMoreElements() {
+            while (matchFile == null && stack.isEmpty() == false) {
+                Iterator<NioVirtualFile> children = stack.peek();
+                if (children.hasNext() == false) {
+                    stack.pop();
+                    continue;
+                }
+                NioVirtualFile child = children.next();
+                try {
+                    if (recurse && child.isDirectory())
+                        stack.push(child.getChildNodes().iterator());
+                } catch (IOException ex) {
+                    throw MESSAGES.runtimeErrorVistingFile(ex, child);
+                }
+                if (filter.matches(child.getName()))
+                    matchFile = child;
+            }
+            return matchFile != null;
+        }
+
+        public URL nextElement() {
+            if (hasMoreElements() == false)
+                throw new NoSuchElementException();
+
+            NioVirtualFile file = matchFile;
+            matchFile = null;
+            try {
+                return file.toURL();
+            } catch (IOException ex) {
+                throw MESSAGES.runtimeErrorVistingFile(ex, file);
+            }
+        }
+    }
+}
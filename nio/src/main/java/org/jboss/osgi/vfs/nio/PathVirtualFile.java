@@ -0,0 +1,257 @@
+/*
+ * #%L
+ * JBossOSGi VFS NIO
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs.nio;
+
+import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipException;
+
+import org.jboss.osgi.vfs.VFSMetrics;
+import org.jboss.osgi.vfs.VFSMetrics.Operation;
+import org.jboss.osgi.vfs.VFSUtils;
+
+/**
+ * A virtual file for a {@link Path} in the default file system.
+ *
+ * A root file that is a zip archive is read into memory on first navigation and its entries are served from its
+ * central directory. Archives that are reached by navigating a directory are plain files, as they would be with
+ * jboss-vfs. There is no mount table, the archive is released with {@link #close()} or when the file is no longer
+ * referenced.
+ *
+ * @since 17-Oct-2026
+ */
+final class PathVirtualFile extends NioVirtualFile {
+
+    private static final Comparator<Path> NAME_ORDER = new Comparator<Path>() {
+        public int compare(Path p1, Path p2) {
+            return p1.getFileName().toString().compareTo(p2.getFileName().toString());
+        }
+    };
+
+    private final Path path;
+    private volatile ZipArchive archive;
+    private volatile boolean notArchive;
+
+    /**
+     * Create a virtual file for the given path.
+     *
+     * @param root true if the file is a root file, which is read if it is an archive
+     */
+    PathVirtualFile(Path path, boolean root) {
+        this.path = path.toAbsolutePath().normalize();
+        this.notArchive = root == false;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    @Override
+    public String getName() {
+        Path name = path.getFileName();
+        return name != null ? name.toString() : "";
+    }
+
+    @Override
+    public String getPathName() {
+        return path.toString();
+    }
+
+    @Override
+    public boolean isFile() throws IOException {
+        return isDirectory() == false && Files.isRegularFile(path);
+    }
+
+    @Override
+    public boolean isDirectory() throws IOException {
+        return Files.isDirectory(path) || getArchive() != null;
+    }
+
+    @Override
+    public long getLastModified() throws IOException {
+        return Files.exists(path) ? Files.getLastModifiedTime(path).toMillis() : 0;
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return isFile() ? Files.size(path) : 0;
+    }
+
+    @Override
+    public URL toURL() throws IOException {
+        ZipArchive zip = getArchive();
+        if (zip != null)
+            return zip.toURL(0);
+        return path.toUri().toURL();
+    }
+
+    @Override
+    public URL getStreamURL() throws IOException {
+        if (Files.isRegularFile(path))
+            return path.toUri().toURL();
+        return super.getStreamURL();
+    }
+
+    @Override
+    public PathVirtualFile getParent() {
+        Path parent = path.getParent();
+        return parent != null ? new PathVirtualFile(parent, false) : null;
+    }
+
+    @Override
+    List<NioVirtualFile> getChildNodes() throws IOException {
+        ZipArchive zip = getArchive();
+        if (zip != null)
+            return zip.getChildEntries(0);
+
+        if (Files.isDirectory(path) == false)
+            return Collections.emptyList();
+
+        List<Path> paths = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(path);
+        try {
+            for (Path child : stream)
+                paths.add(child);
+        } finally {
+            VFSUtils.safeClose(stream);
+        }
+        Collections.sort(paths, NAME_ORDER);
+
+        List<NioVirtualFile> result = new ArrayList<NioVirtualFile>(paths.size());
+        for (Path child : paths)
+            result.add(new PathVirtualFile(child, false));
+        return result;
+    }
+
+    @Override
+    NioVirtualFile getChildNode(String childPath) throws IOException {
+        ZipArchive zip = getArchive();
+        if (zip != null)
+            return zip.getEntry(childPath);
+
+        Path child = path.resolve(childPath);
+        return Files.exists(child) ? new PathVirtualFile(child, false) : null;
+    }
+
+    @Override
+    ZipArchive getArchive() throws IOException {
+        ZipArchive zip = archive;
+        if (zip != null || notArchive)
+            return zip;
+
+        synchronized (this) {
+            if (archive == null && notArchive == false) {
+                if (Files.isRegularFile(path)) {
+                    long start = VFSMetrics.start();
+                    try {
+                        archive = ZipArchive.read(this, path);
+                        VFSMetrics.completed(Operation.MOUNT, start);
+                    } catch (ZipException ex) {
+                        LOGGER.debugf(ex, "Cannot read central directory: %s", path);
+                        notArchive = true;
+                    }
+                } else {
+                    notArchive = true;
+                }
+            }
+            return archive;
+        }
+    }
+
+    @Override
+    int getArchiveIndex() {
+        return 0;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        long start = VFSMetrics.start();
+        try {
+            return Files.newInputStream(path);
+        } finally {
+            VFSMetrics.completed(Operation.OPEN_STREAM, start);
+        }
+    }
+
+    @Override
+    public CodeSigner[] getCodeSigners() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            if (archive != null) {
+                archive = null;
+                notArchive = false;
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof PathVirtualFile))
+            return false;
+        PathVirtualFile other = (PathVirtualFile) obj;
+        return path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+}
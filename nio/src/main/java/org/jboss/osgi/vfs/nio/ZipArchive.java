@@ -0,0 +1,322 @@
+/*
+ * #%L
+ * JBossOSGi VFS NIO
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs.nio;
+
+import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.jboss.osgi.vfs.ExtendedVirtualFile.EntryHandler;
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.vfs.internal.ByteBufferInputStream;
+import org.jboss.osgi.vfs.internal.ZipDirectory;
+
+/**
+ * A zip archive that is held in a {@link ByteBuffer}, read from a file or a stream.
+ *
+ * The archive interns the virtual files for its entries. Archives that are not backed by a file
+ * serve their URLs through a private {@link URLStreamHandler}, so no protocol handler must be installed.
+ *
+ * @since 17-Oct-2026
+ */
+final class ZipArchive {
+
+    static final String PROTOCOL = "vfsnio";
+
+    private final NioVirtualFile root;
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final ZipDirectory directory;
+    private final AtomicReferenceArray<ArchiveVirtualFile> entries;
+    private final AtomicReferenceArray<List<NioVirtualFile>> children;
+    private final URLStreamHandler handler;
+    private final String baseURL;
+    private volatile CodeSigner[][] codeSigners;
+
+    private ZipArchive(NioVirtualFile root, Path file, ByteBuffer buffer) throws ZipException {
+        this.root = root;
+        this.file = file;
+        this.buffer = buffer;
+        this.directory = ZipDirectory.parse(buffer);
+        this.entries = new AtomicReferenceArray<ArchiveVirtualFile>(directory.size());
+        this.children = new AtomicReferenceArray<List<NioVirtualFile>>(directory.size());
+        this.handler = file == null ? new ArchiveURLStreamHandler() : null;
+        this.baseURL = file != null ? "jar:" + file.toUri() + "!/" : "/" + root.getName() + "!/";
+    }
+
+    /**
+     * Read the given archive file into the heap.
+     *
+     * The file is not mapped, so it may be replaced or truncated while the archive is in use.
+     *
+     * @param root the virtual file for the archive file
+     * @throws ZipException if the file is not a supported zip archive
+     */
+    static ZipArchive read(NioVirtualFile root, Path file) throws IOException {
+        if (Files.size(file) > Integer.MAX_VALUE - 8)
+            throw new ZipException("Archive too large to read: " + file);
+        return new ZipArchive(root, file, ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    /**
+     * Wrap the archive content that was read from a stream.
+     *
+     * @param root the virtual file for the archive, which becomes the entry for the archive root
+     * @throws ZipException if the content is not a supported zip archive
+     */
+    static ZipArchive wrap(ArchiveVirtualFile root, ByteBuffer buffer) throws ZipException {
+        ZipArchive archive = new ZipArchive(root, null, buffer);
+        archive.entries.set(0, root);
+        return archive;
+    }
+
+    NioVirtualFile getRoot() {
+        return root;
+    }
+
+    ZipDirectory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the interned virtual file for the entry with the given index.
+     */
+    NioVirtualFile getEntry(int idx) {
+        if (idx == 0)
+            return root;
+        ArchiveVirtualFile entry = entries.get(idx);
+        if (entry == null) {
+            entries.compareAndSet(idx, null, new ArchiveVirtualFile(this, idx));
+            entry = entries.get(idx);
+        }
+        return entry;
+    }
+
+    /**
+     * Get the virtual file for the given path relative to the archive root, or null.
+     */
+    NioVirtualFile getEntry(String path) {
+        int idx = directory.lookup(path);
+        return idx != ZipDirectory.NOT_FOUND ? getEntry(idx) : null;
+    }
+
+    /**
+     * Get the interned virtual files for the children of the directory with the given index.
+     */
+    List<NioVirtualFile> getChildEntries(int idx) {
+        List<NioVirtualFile> result = children.get(idx);
+        if (result == null) {
+            String path = directory.getPath(idx);
+            String prefix = path.length() > 0 ? path + "/" : "";
+            List<String> names = directory.getChildNames(path);
+            List<NioVirtualFile> files = new ArrayList<NioVirtualFile>(names.size());
+            for (String name : names)
+                files.add(getEntry(directory.lookup(prefix + name)));
+            children.compareAndSet(idx, null, Collections.unmodifiableList(files));
+            result = children.get(idx);
+        }
+        return result;
+    }
+
+    /**
+     * Get the archive content.
+     */
+    InputStream openArchive() {
+        return new ByteBufferInputStream(buffer.duplicate(), false);
+    }
+
+    InputStream openEntry(int idx) throws IOException {
+        return directory.openEntry(idx);
+    }
+
+    URL toURL(int idx) throws MalformedURLException {
+        String path = directory.getPath(idx);
+        if (path.length() > 0 && directory.isDirectory(idx))
+            path += "/";
+        if (file != null)
+            return new URL(baseURL + path);
+        return new URL(PROTOCOL, "", -1, baseURL + path, handler);
+    }
+
+    /**
+     * Read the given entries in the order of their local headers.
+     *
+     * @param prefix the path of the directory that the paths are relative to
+     */
+    void readEntries(String prefix, Collection<String> paths, EntryHandler handler) throws IOException {
+        final List<Integer> indexes = new ArrayList<Integer>(paths.size());
+        final List<String> found = new ArrayList<String>(paths.size());
+        for (String path : paths) {
+            String entryPath = NioVirtualFile.normalize(prefix + path);
+            int idx = entryPath != null ? directory.lookup(entryPath) : ZipDirectory.NOT_FOUND;
+            if (idx != ZipDirectory.NOT_FOUND && directory.isDirectory(idx) == false) {
+                indexes.add(idx);
+                found.add(path);
+            }
+        }
+        Integer[] order = new Integer[indexes.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                long offset1 = directory.getLocalHeaderOffset(indexes.get(o1));
+                long offset2 = directory.getLocalHeaderOffset(indexes.get(o2));
+                return offset1 < offset2 ? -1 : (offset1 == offset2 ? 0 : 1);
+            }
+        });
+
+        Inflater inflater = new Inflater(true);
+        try {
+            for (Integer pos : order)
+                handler.handleEntry(found.get(pos), directory.readEntry(indexes.get(pos), inflater));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Get the code signers of the entry with the given index, or null if the entry is not signed.
+     *
+     * Signatures are verified for all entries on first access.
+     */
+    CodeSigner[] getCodeSigners(int idx) {
+        if (directory.isSigned() == false || directory.isDirectory(idx))
+            return null;
+
+        CodeSigner[][] signers = codeSigners;
+        if (signers == null) {
+            synchronized (this) {
+                signers = codeSigners;
+                if (signers == null) {
+                    signers = verifyArchive();
+                    codeSigners = signers;
+                }
+            }
+        }
+        return signers[idx];
+    }
+
+    // Entries must be read completely before their signers are known
+    private CodeSigner[][] verifyArchive() {
+        CodeSigner[][] signers = new CodeSigner[directory.size()][];
+        try {
+            JarInputStream jarIn = new JarInputStream(openArchive(), true);
+            try {
+                byte[] bytes = new byte[8192];
+                JarEntry entry = jarIn.getNextJarEntry();
+                while (entry != null) {
+                    while (jarIn.read(bytes) >= 0) {
+                        // drain the entry
+                    }
+                    String name = entry.getName();
+                    int idx = directory.lookup(name.endsWith("/") ? name.substring(0, name.length() - 1) : name);
+                    if (idx != ZipDirectory.NOT_FOUND)
+                        signers[idx] = entry.getCodeSigners();
+                    entry = jarIn.getNextJarEntry();
+                }
+            } finally {
+                VFSUtils.safeClose(jarIn);
+            }
+        } catch (IOException ex) {
+            throw MESSAGES.runtimeErrorVistingFile(ex, root);
+        }
+        return signers;
+    }
+
+    /**
+     * Serves the URLs of an archive that is not backed by a file.
+     */
+    private class ArchiveURLStreamHandler extends URLStreamHandler {
+
+        @Override
+        protected URLConnection openConnection(final URL url) throws IOException {
+            String spec = url.getPath();
+            String path = spec.substring(spec.indexOf("!/") + 2);
+            if (path.endsWith("/"))
+                path = path.substring(0, path.length() - 1);
+            final int idx = directory.lookup(path);
+            return new URLConnection(url) {
+
+                @Override
+                public void connect() throws IOException {
+                    if (idx == ZipDirectory.NOT_FOUND)
+                        throw new IOException("Entry not found: " + url);
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    connect();
+                    return idx == 0 ? openArchive() : openEntry(idx);
+                }
+
+                @Override
+                public int getContentLength() {
+                    if (idx == ZipDirectory.NOT_FOUND)
+                        return -1;
+                    return idx == 0 ? buffer.limit() : (int) directory.getSize(idx);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * #%L
+ * JBossOSGi VFS NIO
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.vfs.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.jboss.osgi.vfs.ExtendedVirtualFile;
+import org.jboss.osgi.vfs.VFSAdaptor;
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.vfs.VirtualFile;
+import org.jboss.osgi.vfs.nio.NioVFSAdaptor;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * A test that verifies the java.nio based VFS abstraction.
+ *
+ * @since 17-Oct-2026
+ */
+public class NioVFSTestCase {
+
+    private static final String MANIFEST = "Manifest-Version: 1.0\nBundle-SymbolicName: example-nio\n";
+
+    private static VFSAdaptor adaptor = new NioVFSAdaptor();
+    private static File file;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "example nio.jar");
+        archive.setManifest(getAsset(MANIFEST));
+        archive.addAsResource(getAsset("file1"), "file1.txt");
+        archive.addAsResource(getAsset("file2"), "file2.txt");
+        archive.addAsResource(getAsset("file3"), "sub/file3.txt");
+        archive.addAsResource(getAsset("file4"), "sub/file4.txt");
+        archive.addAsResource(getAsset("file5"), "sub/sub/file5.txt");
+        archive.addAsResource(getAsset("file6"), "sub/sub1/file6.txt");
+        archive.addAsResource(getAsset("foo.bar"), "foo.bar");
+        file = toFile(archive);
+    }
+
+    @Test
+    public void testFromURI() throws Exception {
+        VirtualFile virtualFile = adaptor.toVirtualFile(file.toURI());
+        try {
+            VirtualFile child = virtualFile.getChild(JarFile.MANIFEST_NAME);
+            assertEquals(file.getAbsolutePath() + "/" + JarFile.MANIFEST_NAME, child.getPathName());
+            assertEquals("MANIFEST.MF", child.getName());
+            assertEquals(MANIFEST, new String(readBytes(child.openStream())));
+            assertSame(child, virtualFile.getChild("/" + JarFile.MANIFEST_NAME));
+            assertEquals(virtualFile, child.getParent().getParent());
+            assertEquals(virtualFile.getStreamURL(), file.getAbsoluteFile().toURI().toURL());
+
+            Manifest manifest = VFSUtils.getManifest(virtualFile);
+            assertEquals("example-nio", manifest.getMainAttributes().getValue("Bundle-SymbolicName"));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testUnescapedURL() throws Exception {
+        VirtualFile virtualFile = adaptor.toVirtualFile(new URL("file://" + file.getAbsolutePath()));
+        try {
+            VirtualFile child = virtualFile.getChild("sub/file3.txt");
+            assertEquals(file.getAbsolutePath() + "/sub/file3.txt", child.getPathName());
+
+            VirtualFile entry = adaptor.toVirtualFile(child.toURL());
+            assertEquals("file3", new String(readBytes(entry.openStream())));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testFromStream() throws Exception {
+        VirtualFile virtualFile = adaptor.toVirtualFile("foo", new FileInputStream(file));
+        try {
+            VirtualFile child = virtualFile.getChild(JarFile.MANIFEST_NAME);
+            assertEquals("/foo/" + JarFile.MANIFEST_NAME, child.getPathName());
+            assertEquals(MANIFEST, new String(readBytes(child.openStream())));
+            assertEquals(MANIFEST, new String(readBytes(child.toURL().openStream())));
+            assertEquals(file.length(), readBytes(virtualFile.openStream()).length);
+            assertEquals(file.length(), readBytes(virtualFile.getStreamURL().openStream()).length);
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testGetChild() throws Exception {
+        VirtualFile virtualFile = adaptor.toVirtualFile(file.toURI());
+        try {
+            VirtualFile child = virtualFile.getChild("/sub/sub1/");
+            assertNotNull("Child not null", child);
+            assertEquals("sub1", child.getName());
+            assertTrue("Child is directory", child.isDirectory());
+            assertEquals(virtualFile.getChild("sub"), child.getParent());
+            assertEquals(4, child.getParent().getChildren().size());
+
+            child = virtualFile.getChild("sub/../sub/file3.txt");
+            assertNotNull("Child not null", child);
+            assertTrue("Child is file", child.isFile());
+
+            assertNull("Child is null", virtualFile.getChild("sub/file7.txt"));
+            assertNull("Child is null", virtualFile.getChild("sub/sub1/file6.txt/foo"));
+            assertNull("Child is null", virtualFile.getChild("../foo"));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testGetEntryPaths() throws Exception {
+        VirtualFile virtualFile = adaptor.toVirtualFile(file.toURI());
+        try {
+            Set<String> expected = new HashSet<String>(Arrays.asList("sub/file3.txt", "sub/file4.txt", "sub/sub/", "sub/sub1/"));
+            assertEquals(expected, toSet(virtualFile.getEntryPaths("sub")));
+            assertTrue(toSet(virtualFile.getEntryPaths("/")).contains("META-INF/"));
+            assertNull("No entry paths", virtualFile.getEntryPaths("nosuchdir"));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testFindEntries() throws Exception {
+        VirtualFile virtualFile = adaptor.toVirtualFile(file.toURI());
+        try {
+            String rootURL = virtualFile.toURL().toExternalForm();
+            Set<String> expected = new HashSet<String>();
+            expected.add(rootURL + "sub/file3.txt");
+            expected.add(rootURL + "sub/file4.txt");
+            expected.add(rootURL + "sub/sub/");
+            expected.add(rootURL + "sub/sub1/");
+            assertEquals(expected, toSet(virtualFile.findEntries("sub", "*", false)));
+
+            Set<String> actual = toSet(virtualFile.findEntries("/", "*.txt", true));
+            assertEquals(6, actual.size());
+            assertTrue(actual.contains(rootURL + "sub/sub1/file6.txt"));
+            assertEquals("file6", new String(readBytes(new URL(rootURL + "sub/sub1/file6.txt").openStream())));
+            assertNull(virtualFile.findEntries("nosuchdir", "*", true));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testExploded() throws Exception {
+        File dir = new File("target/example-nio-exploded");
+        createFile(dir, JarFile.MANIFEST_NAME, MANIFEST);
+        createFile(dir, "file1.txt", "file1");
+        createFile(dir, "sub/file3.txt", "file3");
+        createFile(dir, "sub/sub/file5.txt", "file5");
+        createFile(dir, "sub/sub/file5.class", "file5");
+        VirtualFile virtualFile = adaptor.toVirtualFile(dir.toURI());
+        try {
+            Set<String> expected = new HashSet<String>();
+            expected.add(virtualFile.getChild("file1.txt").toURL().toExternalForm());
+            expected.add(virtualFile.getChild("sub/file3.txt").toURL().toExternalForm());
+            expected.add(virtualFile.getChild("sub/sub/file5.txt").toURL().toExternalForm());
+            assertEquals(expected, toSet(virtualFile.findEntries("/", "*.txt", true)));
+            assertEquals(new HashSet<String>(Arrays.asList("sub/sub/", "sub/file3.txt")), toSet(virtualFile.getEntryPaths("sub")));
+
+            JarInputStream jarIn = new JarInputStream(virtualFile.getStreamURL().openStream());
+            try {
+                assertEquals("example-nio", jarIn.getManifest().getMainAttributes().getValue("Bundle-SymbolicName"));
+                Set<String> actual = new HashSet<String>();
+                ZipEntry entry = jarIn.getNextEntry();
+                while (entry != null) {
+                    assertEquals(ZipEntry.STORED, entry.getMethod());
+                    actual.add(entry.getName());
+                    entry = jarIn.getNextEntry();
+                }
+                assertTrue("sub/sub/file5.class in " + actual, actual.contains("sub/sub/file5.class"));
+                assertFalse("No manifest in " + actual, actual.contains(JarFile.MANIFEST_NAME));
+            } finally {
+                jarIn.close();
+            }
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testVisitor() throws Exception {
+        final VirtualFile virtualFile = adaptor.toVirtualFile(file.toURI());
+        try {
+            final List<String> visited = new ArrayList<String>();
+            ExtendedVirtualFile.Visitor visitor = new ExtendedVirtualFile.Visitor() {
+                public boolean accept(String path, boolean directory) {
+                    return directory || path.endsWith(".txt");
+                }
+
+                public ExtendedVirtualFile.VisitResult visit(VirtualFile file) {
+                    String path = file.getPathName().substring(virtualFile.getPathName().length() + 1);
+                    visited.add(path);
+                    if (path.equals("sub/sub1"))
+                        return ExtendedVirtualFile.VisitResult.TERMINATE;
+                    return path.equals("META-INF") ? ExtendedVirtualFile.VisitResult.SKIP_SUBTREE : ExtendedVirtualFile.VisitResult.CONTINUE;
+                }
+            };
+            VFSUtils.visit(virtualFile, visitor);
+            assertEquals("sub/sub1", visited.get(visited.size() - 1));
+            assertFalse(visited.contains("sub/sub1/file6.txt"));
+            assertFalse(visited.contains("foo.bar"));
+
+            visited.clear();
+            VFSUtils.visit(virtualFile.getChild("sub/sub"), visitor);
+            assertEquals(Arrays.asList("sub/sub/file5.txt"), visited);
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testReadEntries() throws Exception {
+        List<String> paths = Arrays.asList("sub/sub1/file6.txt", "/file1.txt", "sub/file7.txt", "sub", "sub/../file2.txt");
+        VirtualFile virtualFile = adaptor.toVirtualFile("foo", new FileInputStream(file));
+        try {
+            Map<String, byte[]> entries = VFSUtils.readEntries(virtualFile, paths);
+            assertEquals(new HashSet<String>(Arrays.asList("/file1.txt", "sub/sub1/file6.txt", "sub/../file2.txt")), entries.keySet());
+            assertEquals("file6", new String(entries.get("sub/sub1/file6.txt")));
+            assertEquals("file2", new String(entries.get("sub/../file2.txt")));
+
+            entries = VFSUtils.readEntries(virtualFile.getChild("sub"), Arrays.asList("file3.txt", "sub/file5.txt"));
+            assertEquals("file5", new String(entries.get("sub/file5.txt")));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testCorruptEntryCrc() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zipOut = new ZipOutputStream(bytes);
+        zipOut.putNextEntry(new ZipEntry("a.txt"));
+        zipOut.write("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes());
+        zipOut.closeEntry();
+        zipOut.close();
+
+        // Declare a CRC in the central directory that does not match the content
+        byte[] archive = bytes.toByteArray();
+        for (int pos = archive.length - 22; pos >= 0; pos--) {
+            if (archive[pos] == 'P' && archive[pos + 1] == 'K' && archive[pos + 2] == 1 && archive[pos + 3] == 2) {
+                archive[pos + 16] ^= 0x01;
+                break;
+            }
+        }
+        File zipFile = new File("target/example-corrupt-crc.zip");
+        VFSUtils.copyStream(new ByteArrayInputStream(archive), new FileOutputStream(zipFile));
+
+        VirtualFile virtualFile = adaptor.toVirtualFile(zipFile.toURI());
+        try {
+            readBytes(virtualFile.getChild("a.txt").openStream());
+            fail("ZipException expected");
+        } catch (ZipException ex) {
+            // expected
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testReplacedArchive() throws Exception {
+        File copy = new File("target/example-replaced.jar");
+        VFSUtils.copyStream(new FileInputStream(file), new FileOutputStream(copy));
+        VirtualFile virtualFile = adaptor.toVirtualFile(copy.toURI());
+        try {
+            VirtualFile child = virtualFile.getChild("file1.txt");
+            assertNotNull("Child not null", child);
+
+            // The archive was read, so truncating the file does not affect it
+            new FileOutputStream(copy).close();
+            assertEquals("file1", new String(readBytes(child.openStream())));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testAdaptorDiscovery() throws Exception {
+        List<Class<?>> adaptors = new ArrayList<Class<?>>();
+        for (VFSAdaptor candidate : ServiceLoader.load(VFSAdaptor.class))
+            adaptors.add(candidate.getClass());
+        assertTrue("NioVFSAdaptor in " + adaptors, adaptors.contains(NioVFSAdaptor.class));
+    }
+
+    private static File toFile(JavaArchive archive) throws IOException {
+        ZipExporter exporter = archive.as(ZipExporter.class);
+        File file = new File("target/" + archive.getName());
+        file.getParentFile().mkdirs();
+        VFSUtils.copyStream(exporter.exportAsInputStream(), new FileOutputStream(file));
+        return file;
+    }
+
+    private static Set<String> toSet(Enumeration<?> en) {
+        Set<String> result = new HashSet<String>();
+        while (en.hasMoreElements())
+            result.add(en.nextElement().toString());
+        return result;
+    }
+
+    private static byte[] readBytes(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            VFSUtils.copyStream(input, bytes);
+        } finally {
+            input.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void createFile(File dir, String path, String content) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        VFSUtils.copyStream(new ByteArrayInputStream(content.getBytes()), new FileOutputStream(file));
+    }
+
+    private static Asset getAsset(final String content) {
+        return new Asset() {
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(content.getBytes());
+            }
+        };
+    }
+}
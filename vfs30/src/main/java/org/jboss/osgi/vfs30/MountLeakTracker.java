@@ -0,0 +1,162 @@
+/*
+ * #%L
+ * JBossOSGi VFS VFS30
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs30;
+
+import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.osgi.vfs.VirtualFile;
+
+/**
+ * Tracks the adaptors that own a mount, so that mounts which are never closed can be reported.
+ *
+ * Tracking is only active with {@link VirtualFile#PROPERTY_VFS_LEAK_DEBUGGING} set. Each mount is
+ * registered with a phantom reference to its owner. When an owner becomes unreachable without being
+ * closed, its mount is reported as a leak. The creation stack is only captured for every n-th mount
+ * as configured by {@link VFSAdaptor30#PROPERTY_VFS_LEAK_DEBUGGING_SAMPLE_RATE}. Both properties are read
+ * for every mount, so that tracking can be switched on and off at runtime.
+ *
+ * @since 17-Oct-2026
+ */
+final class MountLeakTracker {
+
+    private static final Set<MountReference> liveMounts = Collections.newSetFromMap(new ConcurrentHashMap<MountReference, Boolean>());
+    private static final ReferenceQueue<Object> leakedOwners = new ReferenceQueue<Object>();
+    private static final AtomicLong mountCount = new AtomicLong();
+
+    // Hide ctor
+    private MountLeakTracker() {
+    }
+
+    /**
+     * True if new mounts are tracked.
+     */
+    static boolean isEnabled() {
+        return Boolean.parseBoolean(SecurityActions.getSystemProperty(VirtualFile.PROPERTY_VFS_LEAK_DEBUGGING, "false"));
+    }
+
+    /**
+     * Start tracking the mount of the given owner.
+     *
+     * @return the reference to pass to {@link #untrack(MountReference)} when the mount is closed
+     */
+    static MountReference track(Object owner, String pathName) {
+        expungeLeakedOwners();
+        Throwable creationStack = null;
+        if (mountCount.getAndIncrement() % getSampleRate() == 0)
+            creationStack = new Throwable("VirtualFile mounted in this stack frame");
+        MountReference ref = new MountReference(owner, pathName, creationStack);
+        liveMounts.add(ref);
+        return ref;
+    }
+
+    /**
+     * Stop tracking a mount that was properly closed.
+     */
+    static void untrack(MountReference ref) {
+        liveMounts.remove(ref);
+        ref.clear();
+    }
+
+    /**
+     * Get a description of every tracked mount that was not closed yet.
+     */
+    static List<String> getLiveMounts() {
+        expungeLeakedOwners();
+        List<String> result = new ArrayList<String>();
+        for (MountReference ref : liveMounts)
+            result.add(ref.describe());
+        return result;
+    }
+
+    private static void expungeLeakedOwners() {
+        Reference<?> ref;
+        while ((ref = leakedOwners.poll()) != null) {
+            MountReference mountRef = (MountReference) ref;
+            if (liveMounts.remove(mountRef))
+                LOGGER.warnVirtualFileNotClosed(mountRef.creationStack, mountRef.pathName);
+        }
+    }
+
+    private static int getSampleRate() {
+        String value = SecurityActions.getSystemProperty(VFSAdaptor30.PROPERTY_VFS_LEAK_DEBUGGING_SAMPLE_RATE, "16");
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException ex) {
+            return 16;
+        }
+    }
+
+    /**
+     * A phantom reference to the owner of a mount. It must not reference the owner itself.
+     */
+    static final class MountReference extends PhantomReference<Object> {
+
+        private final String pathName;
+        private final Throwable creationStack;
+
+        private MountReference(Object owner, String pathName, Throwable creationStack) {
+            super(owner, leakedOwners);
+            this.pathName = pathName;
+            this.creationStack = creationStack;
+        }
+
+        private String describe() {
+            StringBuilder builder = new StringBuilder(pathName);
+            if (creationStack != null) {
+                for (StackTraceElement element : creationStack.getStackTrace())
+                    builder.append("\n\tat ").append(element);
+            }
+            return builder.toString();
+        }
+    }
+}
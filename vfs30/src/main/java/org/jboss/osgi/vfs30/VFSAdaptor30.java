@@ -46,13 +46,20 @@ import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.jboss.osgi.vfs.AdaptorPriority;
 import org.jboss.osgi.vfs.VFSAdaptor;
+import org.jboss.osgi.vfs.VFSMetrics;
 import org.jboss.osgi.vfs.VirtualFile;
 import org.jboss.vfs.VFS;
 import org.jboss.vfs.VFSUtils;
@@ -63,9 +70,87 @@ import org.jboss.vfs.VFSUtils;
  * @author thomas.diesler@jboss.com
  * @since 02-Mar-2010
  */
+@AdaptorPriority(100)
 public final class VFSAdaptor30 implements VFSAdaptor {
 
-    private static Map<org.jboss.vfs.VirtualFile, VirtualFile> registry = new WeakHashMap<org.jboss.vfs.VirtualFile, VirtualFile>();
+    /**
+     * System property to capture the creation stack of every n-th tracked mount: <code>jboss.osgi.vfs.leakDebugging.sampleRate</code>
+     */
+    public static final String PROPERTY_VFS_LEAK_DEBUGGING_SAMPLE_RATE = "jboss.osgi.vfs.leakDebugging.sampleRate";
+
+    /**
+     * System property for the maximum size in bytes of a streamed archive that is mounted in memory: <code>jboss.osgi.vfs.memoryMountThreshold</code>
+     *
+     * Larger archives are copied to a temp file. The default of 0 disables in-memory mounts.
+     */
+    public static final String PROPERTY_VFS_MEMORY_MOUNT_THRESHOLD = "jboss.osgi.vfs.memoryMountThreshold";
+
+    /**
+     * System property to hold in-memory mounts in direct (off-heap) buffers: <code>jboss.osgi.vfs.memoryMountDirect</code>
+     */
+    public static final String PROPERTY_VFS_MEMORY_MOUNT_DIRECT = "jboss.osgi.vfs.memoryMountDirect";
+
+    /**
+     * System property for the maximum size in bytes of the off-heap cache of archive entries: <code>jboss.osgi.vfs.entryCacheSize</code>
+     *
+     * The default of 0 disables the cache.
+     */
+    public static final String PROPERTY_VFS_ENTRY_CACHE_SIZE = "jboss.osgi.vfs.entryCacheSize";
+
+    /**
+     * System property for the interval in milliseconds at which the changes to watched directories are applied: <code>jboss.osgi.vfs.changeScanInterval</code>
+     *
+     * The default of 0 disables the background scan, changes are then only applied on request.
+     */
+    public static final String PROPERTY_VFS_CHANGE_SCAN_INTERVAL = "jboss.osgi.vfs.changeScanInterval";
+
+    /**
+     * System property for the location of the temp files of the adaptor: <code>jboss.osgi.vfs.tempDir</code>
+     *
+     * The default is the <code>java.io.tmpdir</code> directory.
+     */
+    public static final String PROPERTY_VFS_TEMP_DIR = "jboss.osgi.vfs.tempDir";
+
+    /**
+     * System property for the location of the temp files that back mounted archives, such as a tmpfs: <code>jboss.osgi.vfs.tempHotDir</code>
+     *
+     * By default these files are kept with all other temp files.
+     */
+    public static final String PROPERTY_VFS_TEMP_HOT_DIR = "jboss.osgi.vfs.tempHotDir";
+
+    /**
+     * System property for the maximum size in bytes of all temp files of the adaptor: <code>jboss.osgi.vfs.tempQuota</code>
+     *
+     * The default of 0 means no limit.
+     */
+    public static final String PROPERTY_VFS_TEMP_QUOTA = "jboss.osgi.vfs.tempQuota";
+
+    /**
+     * System property to share a single temp copy of streamed archives with identical content: <code>jboss.osgi.vfs.tempDeduplicate</code>
+     */
+    public static final String PROPERTY_VFS_TEMP_DEDUPLICATE = "jboss.osgi.vfs.tempDeduplicate";
+
+    // The registry of weakly referenced adaptors, so that an adaptor that is dropped without being closed can be
+    // reported as a leak. Its mounts and temp files are released before the file can be adapted again.
+    // Lookups do not lock.
+    private static final ConcurrentMap<org.jboss.vfs.VirtualFile, AdaptorReference> registry = new ConcurrentHashMap<org.jboss.vfs.VirtualFile, AdaptorReference>();
+    private static final ReferenceQueue<VirtualFileAdaptor30> staleAdaptors = new ReferenceQueue<VirtualFileAdaptor30>();
+
+    static {
+        VFSMetrics.setGaugeProvider(new VFSMetrics.GaugeProvider() {
+            public long getLiveMounts() {
+                return VirtualFileAdaptor30.getLiveMounts();
+            }
+
+            public long getRegistrySize() {
+                return registry.size();
+            }
+
+            public long getTempBytes() {
+                return VirtualFileAdaptor30.getTempBytes();
+            }
+        });
+    }
 
     @Override
     public VirtualFile toVirtualFile(URL url) throws IOException {
@@ -101,14 +186,26 @@ public final class VFSAdaptor30 implements VFSAdaptor {
         if (other instanceof org.jboss.vfs.VirtualFile == false)
             throw MESSAGES.illegalArgumentNoVirtualFile(other);
 
-        VirtualFile absFile;
-        synchronized (registry) {
-            org.jboss.vfs.VirtualFile vfsFile = (org.jboss.vfs.VirtualFile) other;
-            absFile = registry.get(other);
-            if (absFile == null) {
-                // Register the VirtualFile abstraction
-                absFile = new VirtualFileAdaptor30(vfsFile);
-                registry.put(vfsFile, absFile);
+        org.jboss.vfs.VirtualFile vfsFile = (org.jboss.vfs.VirtualFile) other;
+        AdaptorReference ref = registry.get(vfsFile);
+        VirtualFileAdaptor30 absFile = ref != null ? ref.get() : null;
+        if (absFile == null) {
+            expungeStaleAdaptors();
+
+            // Register the VirtualFile abstraction. The adaptor does not hold any resources
+            // until it is mounted, so a candidate that loses the race is simply dropped.
+            VirtualFileAdaptor30 newFile = new VirtualFileAdaptor30(vfsFile);
+            AdaptorReference newRef = new AdaptorReference(vfsFile, newFile, staleAdaptors);
+            while (absFile == null) {
+                ref = registry.putIfAbsent(vfsFile, newRef);
+                if (ref != null && ref.get() == null) {
+                    // The previous adaptor was dropped without being closed, its mount would hide the archive
+                    ref.resources.releaseAll();
+                    if (registry.replace(vfsFile, ref, newRef))
+                        absFile = newFile;
+                } else {
+                    absFile = ref != null ? ref.get() : newFile;
+                }
             }
         }
         return absFile;
@@ -123,9 +220,170 @@ public final class VFSAdaptor30 implements VFSAdaptor {
         return adaptor.getVirtualFile();
     }
 
+    /**
+     * Get a report of the mounts that are currently not closed.
+     *
+     * Mounts are only tracked with {@link VirtualFile#PROPERTY_VFS_LEAK_DEBUGGING} enabled, otherwise the report is empty.
+     * Each entry starts with the path name of the mounted file, followed by the sampled creation stack if available.
+     *
+     * @return the list of unclosed mounts
+     */
+    public static List<String> getLiveMounts() {
+        return MountLeakTracker.getLiveMounts();
+    }
+
+    /**
+     * Get the storage that is used for new temp files.
+     */
+    public static VFSTempStorage getTempStorage() {
+        return VFSTempStorage.getCurrent();
+    }
+
+    /**
+     * Use the given storage for new temp files, or the default storage if it is null.
+     *
+     * Temp files that already exist stay in the storage that they were created in until their archive is closed.
+     * The caller remains responsible for closing the given storage.
+     */
+    public static void setTempStorage(VFSTempStorage storage) {
+        VFSTempStorage.setCurrent(storage);
+    }
+
+    /**
+     * Get the number of bytes held in temp files for the given archive, such as the copy of a streamed archive
+     * or the stored jar of an exploded directory. An archive that is shared by identical streams is counted
+     * for each of them.
+     */
+    public static long getTempBytes(VirtualFile file) {
+        if (file == null)
+            throw MESSAGES.illegalArgumentNull("file");
+        if (file instanceof VirtualFileAdaptor30 == false)
+            throw MESSAGES.illegalArgumentNoVirtualFile(file);
+
+        return ((VirtualFileAdaptor30) file).getOwnTempBytes();
+    }
+
+    /**
+     * Get the number of entries that were served from the entry cache.
+     *
+     * @see #PROPERTY_VFS_ENTRY_CACHE_SIZE
+     */
+    public static long getEntryCacheHits() {
+        VFSEntryContentCache cache = VFSEntryContentCache.getInstance();
+        return cache != null ? cache.getHits() : 0L;
+    }
+
+    /**
+     * Get the number of entries that were not found in the entry cache.
+     *
+     * @see #PROPERTY_VFS_ENTRY_CACHE_SIZE
+     */
+    public static long getEntryCacheMisses() {
+        VFSEntryContentCache cache = VFSEntryContentCache.getInstance();
+        return cache != null ? cache.getMisses() : 0L;
+    }
+
+    /**
+     * Get the number of bytes currently held by the entry cache.
+     *
+     * @see #PROPERTY_VFS_ENTRY_CACHE_SIZE
+     */
+    public static long getEntryCacheSize() {
+        VFSEntryContentCache cache = VFSEntryContentCache.getInstance();
+        return cache != null ? cache.getSize() : 0L;
+    }
+
+    /**
+     * Register a listener for the changes to an exploded directory root, which starts watching the directory.
+     *
+     * Changes are detected by {@link #checkForChanges(VirtualFile)}, or in the background if
+     * {@link #PROPERTY_VFS_CHANGE_SCAN_INTERVAL} is set. Watching ends when the root is closed.
+     *
+     * @throws IllegalArgumentException if the given file is not a directory root
+     */
+    public static void addChangeListener(VirtualFile root, ChangeListener listener) throws IOException {
+        if (root == null)
+            throw MESSAGES.illegalArgumentNull("root");
+        if (listener == null)
+            throw MESSAGES.illegalArgumentNull("listener");
+
+        getDirectoryRoot(root).getDirectoryWatch().getListeners().add(listener);
+    }
+
+    public static void removeChangeListener(VirtualFile root, ChangeListener listener) throws IOException {
+        if (root == null)
+            throw MESSAGES.illegalArgumentNull("root");
+
+        getDirectoryRoot(root).getDirectoryWatch().getListeners().remove(listener);
+    }
+
+    /**
+     * Apply the changes to an exploded directory root, which starts watching the directory.
+     *
+     * The changes are merged into the entry index of the root, which is only rebuilt when the watch lost events.
+     * The other cached state for the changed paths is dropped, the root stays open and its listeners are notified.
+     * The first call for a root that was not watched before registers the directories and reports no changes.
+     * Changes are reported once the watch service of the platform has delivered their events, which may take a
+     * moment after the file system was modified.
+     *
+     * @return true if anything changed since the previous scan
+     * @throws IllegalArgumentException if the given file is not a directory root
+     */
+    public static boolean checkForChanges(VirtualFile root) throws IOException {
+        if (root == null)
+            throw MESSAGES.illegalArgumentNull("root");
+
+        return getDirectoryRoot(root).checkForChanges();
+    }
+
+    private static VirtualFileAdaptor30 getDirectoryRoot(VirtualFile root) {
+        if (root instanceof VirtualFileAdaptor30 == false)
+            throw MESSAGES.illegalArgumentNotDirectoryRoot(root);
+        return (VirtualFileAdaptor30) root;
+    }
+
+    /**
+     * Receives the changes to a watched directory root.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Called after the caches of the root were updated.
+         *
+         * The paths are relative to the root, directory paths end with a "/".
+         */
+        void filesChanged(VirtualFile root, Set<String> added, Set<String> modified, Set<String> removed);
+    }
+
     static void unregister(VirtualFileAdaptor30 absFile) {
-        synchronized (registry) {
-            registry.remove(absFile.getVirtualFile());
+        // Adaptors for equal files compare equal, only remove the registered instance itself
+        org.jboss.vfs.VirtualFile vfsFile = absFile.getVirtualFile();
+        AdaptorReference ref = registry.get(vfsFile);
+        if (ref != null && ref.get() == absFile)
+            registry.remove(vfsFile, ref);
+    }
+
+    private static void expungeStaleAdaptors() {
+        Reference<? extends VirtualFileAdaptor30> ref;
+        while ((ref = staleAdaptors.poll()) != null) {
+            AdaptorReference adaptorRef = (AdaptorReference) ref;
+            adaptorRef.resources.releaseAll();
+            registry.remove(adaptorRef.vfsFile, adaptorRef);
+        }
+    }
+
+    /**
+     * A weak reference to a registered adaptor, which knows its registry key and the resources of the adaptor.
+     */
+    private static final class AdaptorReference extends WeakReference<VirtualFileAdaptor30> {
+
+        private final org.jboss.vfs.VirtualFile vfsFile;
+        private final VirtualFileAdaptor30.Resources resources;
+
+        AdaptorReference(org.jboss.vfs.VirtualFile vfsFile, VirtualFileAdaptor30 absFile, ReferenceQueue<VirtualFileAdaptor30> queue) {
+            super(absFile, queue);
+            this.vfsFile = vfsFile;
+            this.resources = absFile.getResources();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,349 @@
+/*
+ * #%L
+ * JBossOSGi VFS VFS30
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs30;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects the changes to an exploded directory with a {@link WatchService}.
+ *
+ * Every directory of the tree is registered when watching starts. After that, a scan only drains the pending events,
+ * so its cost depends on the number of changes and not on the size of the tree. Each scan yields the paths that were
+ * added, modified or removed since the previous scan, relative to the root and with directory paths ending in "/".
+ * Pending events are drained in the background if {@link VFSAdaptor30#PROPERTY_VFS_CHANGE_SCAN_INTERVAL} is set.
+ *
+ * @since 17-Oct-2026
+ */
+final class VFSDirectoryWatch implements Closeable {
+
+    private static final long SCAN_INTERVAL = getScanInterval();
+    private static final Set<VirtualFileAdaptor30> scannedRoots = Collections.newSetFromMap(new ConcurrentHashMap<VirtualFileAdaptor30, Boolean>());
+    private static ScheduledExecutorService scanner;
+
+    private final Path rootDir;
+    private final WatchService watchService;
+    private final List<VFSAdaptor30.ChangeListener> listeners = new CopyOnWriteArrayList<VFSAdaptor30.ChangeListener>();
+    // The registered directories by their path relative to the root, which is "" for the root itself
+    private final SortedMap<String, WatchKey> keys = new TreeMap<String, WatchKey>();
+    private final Map<WatchKey, String> paths = new HashMap<WatchKey, String>();
+    private boolean closed;
+
+    VFSDirectoryWatch(File rootDir) throws IOException {
+        this.rootDir = rootDir.toPath();
+        this.watchService = this.rootDir.getFileSystem().newWatchService();
+        try {
+            register(this.rootDir, "", null);
+        } catch (IOException ex) {
+            watchService.close();
+            throw ex;
+        }
+    }
+
+    List<VFSAdaptor30.ChangeListener> getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Drain the events that the watch service delivered since the previous scan.
+     * A closed watch has no changes.
+     */
+    synchronized Changes scan() throws IOException {
+        Changes changes = new Changes();
+        if (closed)
+            return changes;
+
+        WatchKey key = watchService.poll();
+        while (key != null) {
+            String dirPath = paths.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    changes.overflow = true;
+                } else if (dirPath != null) {
+                    Path name = (Path) event.context();
+                    applyEvent(event.kind(), ((Path) key.watchable()).resolve(name), dirPath + name, changes);
+                }
+            }
+            if (key.reset() == false && dirPath != null && keys.get(dirPath) == key)
+                unregister(dirPath);
+            key = watchService.poll();
+        }
+
+        // Events were lost, so the tree is walked again and every file in it is reported as modified
+        if (changes.overflow) {
+            for (String dirPath : new ArrayList<String>(keys.keySet())) {
+                if (keys.containsKey(dirPath) && Files.isDirectory(rootDir.resolve(dirPath)) == false) {
+                    unregister(dirPath);
+                    changes.remove(dirPath);
+                }
+            }
+            register(rootDir, "", changes);
+        }
+        return changes;
+    }
+
+    private void applyEvent(WatchEvent.Kind<?> kind, Path file, String path, Changes changes) throws IOException {
+        if (kind == ENTRY_CREATE) {
+            if (Files.isDirectory(file)) {
+                String dirPath = path + "/";
+                changes.add(dirPath);
+                try {
+                    register(file, dirPath, changes);
+                } catch (NoSuchFileException ex) {
+                    // deleted again
+                    unregister(dirPath);
+                    changes.remove(dirPath);
+                }
+            } else {
+                changes.add(path);
+            }
+        } else if (kind == ENTRY_DELETE) {
+            String dirPath = path + "/";
+            if (keys.containsKey(dirPath)) {
+                unregister(dirPath);
+                changes.remove(dirPath);
+            } else {
+                changes.remove(path);
+            }
+        } else if (kind == ENTRY_MODIFY) {
+            // A directory is modified when its entries change, which is reported for the entries
+            if (Files.isDirectory(file) == false)
+                changes.modify(path);
+        }
+    }
+
+    /**
+     * Register the given directory and the directories below it.
+     *
+     * The entries that are found are reported to the given changes: as added if their directory was not registered
+     * before, files in a registered directory as modified.
+     */
+    private void register(Path dir, String dirPath, Changes changes) throws IOException {
+        boolean known = keys.containsKey(dirPath);
+        if (known == false) {
+            WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            keys.put(dirPath, key);
+            paths.put(key, dirPath);
+        }
+        DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+        try {
+            for (Path child : stream) {
+                String path = dirPath + child.getFileName();
+                if (Files.isDirectory(child)) {
+                    path = path + "/";
+                    if (changes != null && keys.containsKey(path) == false)
+                        changes.add(path);
+                    register(child, path, changes);
+                } else if (changes != null) {
+                    if (known)
+                        changes.modify(path);
+                    else
+                        changes.add(path);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    // Cancel the registration of the given directory and the directories below it
+    private void unregister(String dirPath) {
+        SortedMap<String, WatchKey> below = dirPath.length() > 0 ? keys.subMap(dirPath, dirPath + Character.MAX_VALUE) : keys;
+        for (WatchKey key : below.values()) {
+            key.cancel();
+            paths.remove(key);
+        }
+        below.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        keys.clear();
+        paths.clear();
+        watchService.close();
+    }
+
+    /**
+     * Drain the events of the given root in the background, if a scan interval is configured.
+     */
+    static void startScanning(VirtualFileAdaptor30 root) {
+        if (SCAN_INTERVAL <= 0 || scannedRoots.add(root) == false)
+            return;
+
+        synchronized (VFSDirectoryWatch.class) {
+            if (scanner == null) {
+                scanner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable run) {
+                        Thread thread = new Thread(run, "vfs-change-scanner");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                scanner.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        for (VirtualFileAdaptor30 watched : scannedRoots) {
+                            try {
+                                watched.checkForChanges();
+                            } catch (IOException ex) {
+                                LOGGER.debugf(ex, "Cannot scan for changes: %s", watched);
+                            } catch (RuntimeException ex) {
+                                LOGGER.debugf(ex, "Cannot scan for changes: %s", watched);
+                            }
+                        }
+                    }
+                }, SCAN_INTERVAL, SCAN_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    static void stopScanning(VirtualFileAdaptor30 root) {
+        scannedRoots.remove(root);
+    }
+
+    private static long getScanInterval() {
+        String value = SecurityActions.getSystemProperty(VFSAdaptor30.PROPERTY_VFS_CHANGE_SCAN_INTERVAL, "0");
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * The paths that changed between two scans.
+     */
+    static final class Changes {
+
+        final SortedSet<String> added = new TreeSet<String>();
+        final SortedSet<String> modified = new TreeSet<String>();
+        final SortedSet<String> removed = new TreeSet<String>();
+        // True if events were lost, so any path may have changed
+        boolean overflow;
+
+        boolean isEmpty() {
+            return added.isEmpty() && modified.isEmpty() && removed.isEmpty() && overflow == false;
+        }
+
+        // A path that is removed and created again within a scan is modified, one that is created and removed is not reported
+        void add(String path) {
+            if (removed.remove(path))
+                modified.add(path);
+            else
+                added.add(path);
+        }
+
+        void modify(String path) {
+            if (added.contains(path) == false)
+                modified.add(path);
+        }
+
+        void remove(String path) {
+            modified.remove(path);
+            if (added.remove(path) == false)
+                removed.add(path);
+        }
+
+        /**
+         * True if the given path or anything below it changed.
+         */
+        boolean affects(String path) {
+            return overflow || affects(added, path) || affects(modified, path) || affects(removed, path);
+        }
+
+        /**
+         * True if the given path, or a directory above it, was removed.
+         */
+        boolean removes(String path) {
+            if (removed.contains(path))
+                return true;
+            int idx = path.indexOf('/');
+            while (idx >= 0) {
+                if (removed.contains(path.substring(0, idx + 1)))
+                    return true;
+                idx = path.indexOf('/', idx + 1);
+            }
+            return false;
+        }
+
+        // The sets are sorted, so the paths below a directory follow the directory path
+        private static boolean affects(SortedSet<String> paths, String path) {
+            if (paths.contains(path))
+                return true;
+            if (path.endsWith("/") == false)
+                return false;
+            SortedSet<String> tail = paths.tailSet(path);
+            return tail.isEmpty() == false && tail.first().startsWith(path);
+        }
+    }
+}
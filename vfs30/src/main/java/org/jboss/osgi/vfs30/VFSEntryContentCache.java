@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * JBossOSGi VFS VFS30
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs30;
+
+import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.vfs.internal.ByteBufferInputStream;
+
+/**
+ * A bounded LRU cache of decompressed archive entries, which are held in direct (off-heap) buffers.
+ *
+ * Entries are keyed by the archive file, its timestamp and the entry path, so that a modified archive
+ * never serves stale content. The cache is enabled with {@link VFSAdaptor30#PROPERTY_VFS_ENTRY_CACHE_SIZE}.
+ * The property is read on every access, a new size starts with an empty cache.
+ *
+ * @since 17-Oct-2026
+ */
+final class VFSEntryContentCache {
+
+    private static volatile VFSEntryContentCache instance;
+
+    private final String configuredSize;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Map<EntryKey, ByteBuffer> entries = new LinkedHashMap<EntryKey, ByteBuffer>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long currentBytes;
+
+    private VFSEntryContentCache(String configuredSize, long maxBytes) {
+        this.configuredSize = configuredSize;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxBytes / 8, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the cache, or null if it is not enabled.
+     */
+    static VFSEntryContentCache getInstance() {
+        String value = SecurityActions.getSystemProperty(VFSAdaptor30.PROPERTY_VFS_ENTRY_CACHE_SIZE, "0");
+        VFSEntryContentCache cache = instance;
+        if (cache != null && cache.configuredSize.equals(value))
+            return cache;
+
+        long maxBytes;
+        try {
+            maxBytes = Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            maxBytes = 0;
+        }
+        if (maxBytes <= 0) {
+            instance = null;
+            return null;
+        }
+        synchronized (VFSEntryContentCache.class) {
+            cache = instance;
+            if (cache == null || cache.configuredSize.equals(value) == false) {
+                cache = new VFSEntryContentCache(value, maxBytes);
+                instance = cache;
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Open the content of the given entry from the cache. On a cache miss the entry is read and added to the cache.
+     *
+     * @return the content stream, or null if the entry cannot be cached
+     */
+    InputStream openStream(String archive, long timestamp, org.jboss.vfs.VirtualFile file) throws IOException {
+        EntryKey key = new EntryKey(archive, timestamp, file.getPathName());
+        ByteBuffer content;
+        synchronized (entries) {
+            content = entries.get(key);
+        }
+        if (content != null) {
+            hits.incrementAndGet();
+            return new ByteBufferInputStream(content.duplicate(), false);
+        }
+
+        misses.incrementAndGet();
+        if (file.isFile() == false || file.getSize() > maxEntryBytes)
+            return null;
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) file.getSize());
+        InputStream input = file.openStream();
+        try {
+            VFSUtils.copyStream(input, output);
+        } finally {
+            VFSUtils.safeClose(input);
+        }
+        byte[] bytes = output.toByteArray();
+        try {
+            content = ByteBuffer.allocateDirect(bytes.length);
+        } catch (OutOfMemoryError ex) {
+            // Direct memory is exhausted, serve this entry from the heap
+            LOGGER.debugf("Cannot allocate direct buffer for: %s", file);
+            return new ByteBufferInputStream(ByteBuffer.wrap(bytes), false);
+        }
+        content.put(bytes);
+        content.flip();
+        put(key, content);
+        return new ByteBufferInputStream(content.duplicate(), false);
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getSize() {
+        synchronized (entries) {
+            return currentBytes;
+        }
+    }
+
+    private void put(EntryKey key, ByteBuffer content) {
+        synchronized (entries) {
+            ByteBuffer previous = entries.put(key, content);
+            if (previous != null)
+                currentBytes -= previous.capacity();
+            currentBytes += content.capacity();
+            Iterator<ByteBuffer> iterator = entries.values().iterator();
+            while (currentBytes > maxBytes && iterator.hasNext()) {
+                currentBytes -= iterator.next().capacity();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class EntryKey {
+
+        private final String archive;
+        private final long timestamp;
+        private final String path;
+        private final int hashCode;
+
+        EntryKey(String archive, long timestamp, String path) {
+            this.archive = archive;
+            this.timestamp = timestamp;
+            this.path = path;
+            this.hashCode = 31 * (31 * archive.hashCode() + (int) (timestamp ^ (timestamp >>> 32))) + path.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof EntryKey))
+                return false;
+            EntryKey other = (EntryKey) obj;
+            return timestamp == other.timestamp && path.equals(other.path) && archive.equals(other.archive);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
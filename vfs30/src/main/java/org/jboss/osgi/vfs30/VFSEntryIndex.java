@@ -0,0 +1,297 @@
+/*
+ * #%L
+ * JBossOSGi VFS VFS30
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs30;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+
+import org.jboss.osgi.vfs.internal.ZipDirectory;
+import org.jboss.vfs.VirtualFile;
+import org.jboss.vfs.VirtualFileVisitor;
+import org.jboss.vfs.VisitorAttributes;
+
+/**
+ * A sorted, prefix searchable table of all entry paths in a mounted archive.
+ *
+ * The index is built once by a single walk of the mounted tree. Paths are relative to the archive root
+ * and directory paths end with a "/", which keeps every subtree in a contiguous range of the table.
+ * The changes to a watched directory are merged into a copy of the table, without walking the tree again.
+ *
+ * @since 17-Oct-2026
+ */
+final class VFSEntryIndex {
+
+    /** The pseudo index of the archive root */
+    static final int ROOT = -1;
+    /** The result of a lookup for a path that is not in the archive */
+    static final int NOT_FOUND = -2;
+
+    private final String rootPath;
+    private final String[] paths;
+    private final int[] subtreeEnds;
+
+    private VFSEntryIndex(String rootPath, String[] paths) {
+        this.rootPath = rootPath;
+        this.paths = paths;
+        this.subtreeEnds = new int[paths.length];
+
+        // For every directory record the index after its last descendant
+        int[] stack = new int[16];
+        int depth = 0;
+        for (int i = 0; i < paths.length; i++) {
+            while (depth > 0 && paths[i].startsWith(paths[stack[depth - 1]]) == false)
+                subtreeEnds[stack[--depth]] = i;
+            if (isDirectoryPath(paths[i])) {
+                if (depth == stack.length)
+                    stack = Arrays.copyOf(stack, depth * 2);
+                stack[depth++] = i;
+            } else {
+                subtreeEnds[i] = i + 1;
+            }
+        }
+        while (depth > 0)
+            subtreeEnds[stack[--depth]] = paths.length;
+    }
+
+    // Share the tables of another index for a different root
+    private VFSEntryIndex(String rootPath, VFSEntryIndex other) {
+        this.rootPath = rootPath;
+        this.paths = other.paths;
+        this.subtreeEnds = other.subtreeEnds;
+    }
+
+    /**
+     * Create the index by walking the given mounted root once.
+     */
+    static VFSEntryIndex create(VirtualFile root) throws IOException {
+        final String rootPath = root.getPathName();
+        final List<String> paths = new ArrayList<String>();
+        root.visit(new VirtualFileVisitor() {
+
+            public VisitorAttributes getAttributes() {
+                return VisitorAttributes.RECURSE;
+            }
+
+            public void visit(VirtualFile file) {
+                String path = file.getPathName().substring(rootPath.length() + 1);
+                paths.add(file.isDirectory() ? path + "/" : path);
+            }
+        });
+        String[] sorted = paths.toArray(new String[paths.size()]);
+        Arrays.sort(sorted);
+        return new VFSEntryIndex(rootPath, sorted);
+    }
+
+    /**
+     * Create the index from the central directory of the mounted archive, without walking the tree.
+     */
+    static VFSEntryIndex create(String rootPath, ZipDirectory directory) {
+        String[] sorted = new String[directory.size() - 1];
+        for (int idx = 1; idx < directory.size(); idx++) {
+            String path = directory.getPath(idx);
+            sorted[idx - 1] = directory.isDirectory(idx) ? path + "/" : path;
+        }
+        Arrays.sort(sorted);
+        return new VFSEntryIndex(rootPath, sorted);
+    }
+
+    /**
+     * Get an index with the given changes applied. The paths are sorted, directory paths end with a "/".
+     *
+     * A removed directory removes the entries below it. Paths that are added and already known are ignored.
+     */
+    VFSEntryIndex withChanges(SortedSet<String> added, SortedSet<String> removed) {
+        // Mark the removed entries, a directory marks its whole subtree
+        boolean[] skip = new boolean[paths.length];
+        for (String path : removed) {
+            int idx = Arrays.binarySearch(paths, path);
+            if (idx >= 0)
+                Arrays.fill(skip, idx, subtreeEnds[idx], true);
+        }
+
+        // Merge the remaining entries with the added paths, both are sorted
+        List<String> result = new ArrayList<String>(paths.length + added.size());
+        Iterator<String> it = added.iterator();
+        String next = it.hasNext() ? it.next() : null;
+        for (int i = 0; i < paths.length; i++) {
+            if (skip[i])
+                continue;
+            while (next != null && next.compareTo(paths[i]) < 0) {
+                result.add(next);
+                next = it.hasNext() ? it.next() : null;
+            }
+            if (next != null && next.equals(paths[i]))
+                next = it.hasNext() ? it.next() : null;
+            result.add(paths[i]);
+        }
+        while (next != null) {
+            result.add(next);
+            next = it.hasNext() ? it.next() : null;
+        }
+        return new VFSEntryIndex(rootPath, result.toArray(new String[result.size()]));
+    }
+
+    /**
+     * Get an index of the same entries for an archive that is mounted at another root path.
+     */
+    VFSEntryIndex withRootPath(String otherRootPath) {
+        return rootPath.equals(otherRootPath) ? this : new VFSEntryIndex(otherRootPath, this);
+    }
+
+    /**
+     * True if the given path can be answered by the index.
+     * Paths that contain empty, "." or ".." segments are left to the VFS.
+     */
+    static boolean isSimplePath(String path) {
+        int start = 0;
+        int length = path.length();
+        while (start < length && path.charAt(start) == '/')
+            start++;
+        if (length > start && path.charAt(length - 1) == '/')
+            length--;
+        int segment = start;
+        for (int i = start; i <= length; i++) {
+            if (i == length || path.charAt(i) == '/') {
+                int len = i - segment;
+                if (len == 0 && i > start)
+                    return false;
+                if (len == 1 && path.charAt(segment) == '.')
+                    return false;
+                if (len == 2 && path.charAt(segment) == '.' && path.charAt(segment + 1) == '.')
+                    return false;
+                segment = i + 1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lookup a simple path relative to the archive root.
+     *
+     * @return the entry index, {@link #ROOT} or {@link #NOT_FOUND}
+     */
+    int lookup(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/')
+            start++;
+        if (end > start && path.charAt(end - 1) == '/')
+            end--;
+        if (start == end)
+            return ROOT;
+
+        String key = path.substring(start, end);
+        int idx = Arrays.binarySearch(paths, key);
+        if (idx >= 0)
+            return idx;
+        idx = Arrays.binarySearch(paths, key + "/");
+        return idx >= 0 ? idx : NOT_FOUND;
+    }
+
+    int size() {
+        return paths.length;
+    }
+
+    /**
+     * Get the path relative to the archive root. Directory paths end with a "/".
+     */
+    String getPath(int idx) {
+        return paths[idx];
+    }
+
+    /**
+     * Get the simple name of the entry without a trailing "/".
+     */
+    String getName(int idx) {
+        String path = paths[idx];
+        int end = isDirectoryPath(path) ? path.length() - 1 : path.length();
+        return path.substring(path.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    boolean isDirectory(int idx) {
+        return idx == ROOT || isDirectoryPath(paths[idx]);
+    }
+
+    /**
+     * The first index in the subtree of the given directory.
+     */
+    int firstChild(int dirIdx) {
+        return dirIdx == ROOT ? 0 : dirIdx + 1;
+    }
+
+    /**
+     * The index after the last descendant of the given entry.
+     */
+    int subtreeEnd(int idx) {
+        return idx == ROOT ? paths.length : subtreeEnds[idx];
+    }
+
+    /**
+     * The index of the next entry at the same level, skipping the subtree of the given entry.
+     */
+    int nextSibling(int idx) {
+        return subtreeEnds[idx];
+    }
+
+    /**
+     * Get the vfs URL for the given entry without a round trip through the VFS.
+     */
+    URL toURL(int idx) throws IOException {
+        try {
+            return new URI("vfs", "", rootPath + "/" + paths[idx], null).toURL();
+        } catch (URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static boolean isDirectoryPath(String path) {
+        return path.charAt(path.length() - 1) == '/';
+    }
+}
@@ -45,10 +45,9 @@ package org.jboss.osgi.vfs30;
 import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.jboss.vfs.VirtualFile;
 
@@ -62,8 +61,16 @@ import org.jboss.vfs.VirtualFile;
  */
 class VFSEntryPathsEnumeration implements Enumeration<String> {
 
-    /** The paths */
-    private Iterator<String> paths;
+    /** The children of a tree walk */
+    private final Iterator<VirtualFile> children;
+    /** The length of the root path that is cut from child paths */
+    private final int rootLength;
+
+    /** The entry index and the range of the enumerated directory */
+    private final VFSEntryIndex index;
+    private final int end;
+    private final int prefixLength;
+    private int next;
 
     /**
      * Create a new VFSEntryPathsEnumeration.
@@ -78,45 +85,59 @@ class VFSEntryPathsEnumeration implements Enumeration<String> {
         if (file == null)
             throw MESSAGES.illegalArgumentNull("file");
 
-        String rootPath = root.getPathName();
-        ArrayList<String> paths = new ArrayList<String>();
-
-        List<VirtualFile> children = file.getChildren();
-        for (VirtualFile child : children) {
-            String fixedPath = fixPath(rootPath, child);
-            if (fixedPath != null)
-                paths.add(fixedPath);
-        }
+        this.children = file.getChildren().iterator();
+        this.rootLength = root.getPathName().length();
+        this.index = null;
+        this.end = 0;
+        this.prefixLength = 0;
+    }
 
-        this.paths = paths.iterator();
+    /**
+     * Create a new VFSEntryPathsEnumeration from the archive's entry index.
+     *
+     * The paths are taken from the index as they are, or cut after the given prefix length
+     * if the enumeration is relative to a directory within the archive.
+     *
+     * @param index the entry index of the archive
+     * @param dirIdx the index of the directory to enumerate
+     * @param prefixLength the length of the path of the file that the paths are relative to
+     */
+    VFSEntryPathsEnumeration(VFSEntryIndex index, int dirIdx, int prefixLength) {
+        if (index == null)
+            throw MESSAGES.illegalArgumentNull("index");
+
+        this.children = null;
+        this.rootLength = 0;
+        this.index = index;
+        this.next = index.firstChild(dirIdx);
+        this.end = index.subtreeEnd(dirIdx);
+        this.prefixLength = prefixLength;
     }
 
     public boolean hasMoreElements() {
-        return paths.hasNext();
+        return index != null ? next < end : children.hasNext();
     }
 
     public String nextElement() {
-        return paths.next();
+        if (index == null)
+            return fixPath(children.next());
+
+        if (next >= end)
+            throw new NoSuchElementException();
+        String path = index.getPath(next);
+        next = index.nextSibling(next);
+        return prefixLength == 0 ? path : path.substring(prefixLength);
     }
 
-    private String fixPath(String rootPath, VirtualFile file) {
-        String result = file.getPathName();
-
-        int length = rootPath.length();
-        if (length != 0)
-            result = result.substring(length);
-
-        // Returned paths indicating subdirectory paths end with a "/"
-        if (file.isDirectory() && result.endsWith("/") == false)
-            result += "/";
-
-        // The returned paths are all relative to the root of this bundle and must not begin with "/".
-        if (result.startsWith("/"))
-            result = result.substring(1);
-
-        if (result.isEmpty())
-            return null;
-
-        return result;
+    // The returned paths are relative to the root and must not begin with "/",
+    // paths indicating subdirectory paths end with a "/"
+    private String fixPath(VirtualFile file) {
+        String path = file.getPathName();
+        int start = rootLength;
+        if (start < path.length() && path.charAt(start) == '/')
+            start++;
+        if (file.isDirectory() == false || path.endsWith("/"))
+            return path.substring(start);
+        return new StringBuilder(path.length() - start + 1).append(path, start, path.length()).append('/').toString();
     }
 }
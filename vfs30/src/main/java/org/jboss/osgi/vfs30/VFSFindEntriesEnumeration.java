@@ -46,19 +46,20 @@ import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Enumeration;
 import java.util.Iterator;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.NoSuchElementException;
 
+import org.jboss.osgi.vfs.internal.FilePattern;
 import org.jboss.vfs.VirtualFile;
-import org.jboss.vfs.VirtualFileVisitor;
-import org.jboss.vfs.VisitorAttributes;
-import org.jboss.vfs.util.MatchAllVirtualFileFilter;
 
 /**
  * An enumeration of VFS entries.
+ *
+ * The entries are found one at a time while the enumeration is consumed and the URL of an entry
+ * is only created when it is returned from {@link #nextElement()}.
  * 
  * @author <a href="adrian@jboss.com">Adrian Brock</a>
  * @author thomas.diesler@jboss.com
@@ -67,8 +68,18 @@ import org.jboss.vfs.util.MatchAllVirtualFileFilter;
  */
 class VFSFindEntriesEnumeration implements Enumeration<URL> {
 
-    /** The paths */
-    private Iterator<URL> paths;
+    private final FilePattern filter;
+    private final boolean recurse;
+
+    /** The entry index to walk, or null if the VFS tree is walked */
+    private final VFSEntryIndex index;
+    private int nextIdx;
+    private int endIdx;
+    private int matchIdx = VFSEntryIndex.NOT_FOUND;
+
+    /** The open directories of the VFS tree walk */
+    private final Deque<Iterator<VirtualFile>> stack;
+    private VirtualFile matchFile;
 
     /**
      * Create a new VFSFindEntriesEnumeration.
@@ -85,63 +96,83 @@ class VFSFindEntriesEnumeration implements Enumeration<URL> {
         if (file == null)
             throw MESSAGES.illegalArgumentNull("file");
 
-        String rootPath = root.getPathName();
-        VisitorAttributes attributes = new VisitorAttributes();
-        attributes.setIncludeRoot(false);
-        attributes.setLeavesOnly(false);
-        if (recurse)
-            attributes.setRecurseFilter(MatchAllVirtualFileFilter.INSTANCE);
-
-        VisitorImpl visitor = new VisitorImpl(rootPath, filePattern, attributes);
-        file.visit(visitor);
+        this.filter = FilePattern.compile(filePattern);
+        this.recurse = recurse;
+        this.index = null;
+        this.stack = new ArrayDeque<Iterator<VirtualFile>>();
+        this.stack.push(file.getChildren().iterator());
+    }
 
-        this.paths = visitor.paths.iterator();
+    /**
+     * Create a new VFSFindEntriesEnumeration from the archive's entry index.
+     *
+     * @param index the entry index of the archive
+     * @param dirIdx the index of the directory to enumerate
+     * @param filePattern the file pattern
+     * @param recurse whether to recurse
+     */
+    VFSFindEntriesEnumeration(VFSEntryIndex index, int dirIdx, String filePattern, boolean recurse) {
+        if (index == null)
+            throw MESSAGES.illegalArgumentNull("index");
+
+        this.filter = FilePattern.compile(filePattern);
+        this.recurse = recurse;
+        this.index = index;
+        this.nextIdx = index.firstChild(dirIdx);
+        this.endIdx = index.subtreeEnd(dirIdx);
+        this.stack = null;
     }
 
     public boolean hasMoreElements() {
-        return paths.hasNext();
+        return index != null ? findNextIndexEntry() : findNextFile();
     }
 
     public URL nextElement() {
-        return paths.next();
-    }
-
-    static class VisitorImpl implements VirtualFileVisitor {
+        if (hasMoreElements() == false)
+            throw new NoSuchElementException();
 
-        ArrayList<URL> paths = new ArrayList<URL>();
-
-        Pattern filter;
-        String rootPath;
-        VisitorAttributes attributes;
-
-        VisitorImpl(String rootPath, String filter, VisitorAttributes attributes) {
-            this.rootPath = rootPath;
-            this.filter = convertToPattern(filter);
-            this.attributes = attributes;
+        if (index != null) {
+            int idx = matchIdx;
+            matchIdx = VFSEntryIndex.NOT_FOUND;
+            try {
+                return index.toURL(idx);
+            } catch (IOException ex) {
+                throw MESSAGES.runtimeErrorVistingFile(ex, index.getPath(idx));
+            }
         }
 
-        public VisitorAttributes getAttributes() {
-            return attributes;
+        VirtualFile file = matchFile;
+        matchFile = null;
+        try {
+            return file.toURL();
+        } catch (IOException ex) {
+            throw MESSAGES.runtimeErrorVistingFile(ex, file);
         }
+    }
 
-        public void visit(VirtualFile virtualFile) {
-            // See if the filter matches
-            Matcher matcher = filter.matcher(virtualFile.getName());
-            if (matcher.find() == false)
-                return;
-
-            try {
-                paths.add(virtualFile.toURL());
-            } catch (Exception e) {
-                throw MESSAGES.runtimeErrorVistingFile(e, virtualFile);
-            }
+    private boolean findNextIndexEntry() {
+        while (matchIdx == VFSEntryIndex.NOT_FOUND && nextIdx < endIdx) {
+            int idx = nextIdx;
+            nextIdx = recurse ? idx + 1 : index.nextSibling(idx);
+            if (filter.matches(index.getName(idx)))
+                matchIdx = idx;
         }
+        return matchIdx != VFSEntryIndex.NOT_FOUND;
+    }
 
-        // Convert file pattern (RFC 1960-based Filter) into a RegEx pattern
-        private static Pattern convertToPattern(String filePattern) {
-            filePattern = filePattern.replace("*", ".*");
-            return Pattern.compile("^" + filePattern + "$");
+    private boolean findNextFile() {
+        while (matchFile == null && stack.isEmpty() == false) {
+            Iterator<VirtualFile> children = stack.peek();
+            if (children.hasNext() == false) {
+                stack.pop();
+                continue;
+            }
+            VirtualFile child = children.next();
+            if (recurse && child.isDirectory())
+                stack.push(child.getChildren().iterator());
+            if (filter.matches(child.getName()))
+                matchFile = child;
         }
-
+        return matchFile != null;
     }
 }
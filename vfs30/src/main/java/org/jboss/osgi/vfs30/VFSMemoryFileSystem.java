@@ -0,0 +1,211 @@
+/*
+ * #%L
+ * JBossOSGi VFS VFS30
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs30;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.util.List;
+
+import org.jboss.osgi.vfs.internal.ByteBufferInputStream;
+import org.jboss.osgi.vfs.internal.ZipDirectory;
+import org.jboss.vfs.VFSUtils;
+import org.jboss.vfs.VirtualFile;
+import org.jboss.vfs.spi.FileSystem;
+
+/**
+ * A read-only jboss-vfs {@link FileSystem} that serves a zip archive held in memory.
+ *
+ * Entries are read straight from the archive buffer as described by the central directory.
+ * A physical file is only created on demand through {@link #getFile(VirtualFile, VirtualFile)}.
+ *
+ * @since 17-Oct-2026
+ */
+final class VFSMemoryFileSystem implements FileSystem {
+
+    private final ByteBuffer archive;
+    private final ZipDirectory directory;
+    private final String archiveName;
+    private final VFSTempStorage storage;
+    private final VirtualFile mountPoint;
+    private VFSTempStorage.Area extractArea;
+
+    VFSMemoryFileSystem(ByteBuffer archive, ZipDirectory directory, String archiveName, VirtualFile mountPoint, VFSTempStorage storage) {
+        this.archive = archive;
+        this.directory = directory;
+        this.archiveName = archiveName;
+        this.mountPoint = mountPoint;
+        this.storage = storage;
+    }
+
+    @Override
+    public File getFile(VirtualFile mountPoint, VirtualFile target) throws IOException {
+        String path = getRelativePath(mountPoint, target);
+        synchronized (this) {
+            if (extractArea == null)
+                extractArea = storage.createArea(archiveName, false);
+
+            // The root is the archive itself
+            if (path.length() == 0) {
+                File file = extractArea.getFile(archiveName);
+                if (file.exists() == false)
+                    createFile(archiveName, new ByteBufferInputStream(archive.duplicate(), false));
+                return file;
+            }
+
+            int idx = directory.lookup(path);
+            if (idx == ZipDirectory.NOT_FOUND)
+                throw new FileNotFoundException(target.getPathName());
+
+            File file = new File(extractArea.getFile("contents"), path);
+            if (directory.isDirectory(idx)) {
+                file.mkdirs();
+            } else if (file.exists() == false) {
+                file.getParentFile().mkdirs();
+                createFile("contents/" + path, directory.openEntry(idx));
+            }
+            return file;
+        }
+    }
+
+    @Override
+    public InputStream openInputStream(VirtualFile mountPoint, VirtualFile target) throws IOException {
+        String path = getRelativePath(mountPoint, target);
+        if (path.length() == 0)
+            return new ByteBufferInputStream(archive.duplicate(), false);
+
+        int idx = directory.lookup(path);
+        if (idx == ZipDirectory.NOT_FOUND || directory.isDirectory(idx))
+            throw new FileNotFoundException(target.getPathName());
+
+        return directory.openEntry(idx);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public boolean delete(VirtualFile mountPoint, VirtualFile target) {
+        return false;
+    }
+
+    @Override
+    public long getSize(VirtualFile mountPoint, VirtualFile target) {
+        String path = getRelativePath(mountPoint, target);
+        if (path.length() == 0)
+            return archive.remaining();
+        int idx = directory.lookup(path);
+        return idx != ZipDirectory.NOT_FOUND ? directory.getSize(idx) : 0L;
+    }
+
+    @Override
+    public long getLastModified(VirtualFile mountPoint, VirtualFile target) {
+        int idx = directory.lookup(getRelativePath(mountPoint, target));
+        return idx != ZipDirectory.NOT_FOUND ? directory.getLastModified(idx) : 0L;
+    }
+
+    @Override
+    public boolean exists(VirtualFile mountPoint, VirtualFile target) {
+        return directory.lookup(getRelativePath(mountPoint, target)) != ZipDirectory.NOT_FOUND;
+    }
+
+    @Override
+    public boolean isFile(VirtualFile mountPoint, VirtualFile target) {
+        int idx = directory.lookup(getRelativePath(mountPoint, target));
+        return idx != ZipDirectory.NOT_FOUND && directory.isDirectory(idx) == false;
+    }
+
+    @Override
+    public boolean isDirectory(VirtualFile mountPoint, VirtualFile target) {
+        int idx = directory.lookup(getRelativePath(mountPoint, target));
+        return idx != ZipDirectory.NOT_FOUND && directory.isDirectory(idx);
+    }
+
+    @Override
+    public List<String> getDirectoryEntries(VirtualFile mountPoint, VirtualFile target) {
+        return directory.getChildNames(getRelativePath(mountPoint, target));
+    }
+
+    @Override
+    public CodeSigner[] getCodeSigners(VirtualFile mountPoint, VirtualFile target) {
+        // Signed archives are not mounted in memory
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            VFSUtils.safeClose(extractArea);
+            extractArea = null;
+        }
+    }
+
+    @Override
+    public File getMountSource() {
+        return null;
+    }
+
+    @Override
+    public URI getRootURI() throws URISyntaxException {
+        return mountPoint.toURI();
+    }
+
+    private void createFile(String relativePath, InputStream input) throws IOException {
+        try {
+            extractArea.createFile(relativePath, input);
+        } finally {
+            VFSUtils.safeClose(input);
+        }
+    }
+
+    private static String getRelativePath(VirtualFile mountPoint, VirtualFile target) {
+        return mountPoint.equals(target) ? "" : target.getPathNameRelativeTo(mountPoint);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * JBossOSGi VFS VFS30
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs30;
+
+import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.jboss.osgi.vfs.internal.ZipDirectory;
+
+/**
+ * An archive in the content-addressed store of a {@link VFSTempStorage}.
+ *
+ * Streams with identical content share one backing file, its central directory and its entry index.
+ * The archive is reference counted and deleted when the last virtual file that uses it is closed.
+ *
+ * @since 17-Oct-2026
+ */
+final class VFSSharedArchive implements Closeable {
+
+    private final VFSTempStorage storage;
+    private final String hash;
+    private final VFSTempStorage.Area area;
+    private final File file;
+    private ZipDirectory zipDirectory;
+    private boolean zipDirectoryUnsupported;
+    private VFSEntryIndex entryIndex;
+    // Guarded by the store of the storage
+    private int references = 1;
+
+    VFSSharedArchive(VFSTempStorage storage, String hash, VFSTempStorage.Area area, File file) {
+        this.storage = storage;
+        this.hash = hash;
+        this.area = area;
+        this.file = file;
+    }
+
+    String getHash() {
+        return hash;
+    }
+
+    VFSTempStorage.Area getArea() {
+        return area;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getLength() {
+        return area.getBytes();
+    }
+
+    /**
+     * Get the central directory of the archive, which is mapped on first access.
+     *
+     * @return the directory or null if the archive cannot be read directly
+     */
+    synchronized ZipDirectory getZipDirectory() {
+        if (zipDirectory == null && zipDirectoryUnsupported == false) {
+            try {
+                zipDirectory = ZipDirectory.map(file);
+            } catch (IOException ex) {
+                LOGGER.debugf(ex, "Cannot read central directory: %s", file);
+                zipDirectoryUnsupported = true;
+            }
+        }
+        return zipDirectory;
+    }
+
+    /**
+     * Get the entry index of the archive for the given mount root, which is built on first access.
+     *
+     * @return the index or null if the archive cannot be read directly
+     */
+    synchronized VFSEntryIndex getEntryIndex(String rootPath) {
+        if (entryIndex == null) {
+            ZipDirectory directory = getZipDirectory();
+            if (directory == null)
+                return null;
+            entryIndex = VFSEntryIndex.create(rootPath, directory);
+        }
+        return entryIndex.withRootPath(rootPath);
+    }
+
+    // Called by the storage with its store locked
+    void retain() {
+        references++;
+    }
+
+    // Called by the storage with its store locked, true if this was the last reference
+    boolean releaseReference() {
+        return --references == 0;
+    }
+
+    /**
+     * Release a reference, the archive is deleted with the last one.
+     */
+    void release() {
+        storage.release(this);
+    }
+
+    /**
+     * Release the reference of the adaptor that holds this archive.
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    @Override
+    public String toString() {
+        return "VFSSharedArchive[" + hash + ",references=" + references + "]";
+    }
+}
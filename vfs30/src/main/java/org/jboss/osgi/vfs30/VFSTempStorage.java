@@ -0,0 +1,652 @@
+/*
+ * #%L
+ * JBossOSGi VFS VFS30
+ * %%
+ * Copyright (C) 2010 - 2012 JBoss by Red Hat
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as 
+ * published by the Free Software Foundation, either version 2.1 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2006, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.vfs30;
+
+import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
+import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.vfs.TempFileProvider;
+import org.jboss.vfs.VFSUtils;
+
+/**
+ * The storage for the temp files of the adaptor, such as the copies of streamed archives and the stored jars
+ * of exploded directories.
+ *
+ * Every process owns a directory below the storage location, which is locked while the process runs. Directories
+ * of processes that ended without cleaning up are removed by {@link #compact()}, which the default storage runs
+ * in the background. Temp files are accounted per archive and released as soon as the archive is closed. Their
+ * total size can be bounded by a quota. Hot data, which backs mounted archives, can be placed in a separate
+ * location such as a tmpfs.
+ *
+ * Streamed archives with identical content can share a single copy in a content-addressed store.
+ *
+ * The default storage is configured with {@link VFSAdaptor30#PROPERTY_VFS_TEMP_DIR},
+ * {@link VFSAdaptor30#PROPERTY_VFS_TEMP_HOT_DIR}, {@link VFSAdaptor30#PROPERTY_VFS_TEMP_QUOTA} and
+ * {@link VFSAdaptor30#PROPERTY_VFS_TEMP_DEDUPLICATE}.
+ *
+ * @since 17-Oct-2026
+ */
+public final class VFSTempStorage implements Closeable {
+
+    // The name of the directory below a location that holds the process directories
+    private static final String STORAGE_DIR = "osgi-vfs";
+    private static final String PROCESS_PREFIX = "osgitmp-";
+    private static final String LOCK_FILE = ".lock";
+    // Process directories without a lock file are only removed after this grace period
+    private static final long ORPHAN_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long COMPACT_INTERVAL_MINUTES = 60;
+
+    private static final SecureRandom random = new SecureRandom();
+    private static volatile VFSTempStorage current;
+
+    private final Tier cold;
+    private final Tier hot;
+    private final long quota;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicInteger areaCount = new AtomicInteger();
+    private final boolean deduplicate;
+    private final Map<String, VFSSharedArchive> sharedArchives = new HashMap<String, VFSSharedArchive>();
+    private TempFileProvider tmpProvider;
+    private boolean closed;
+
+    /**
+     * Create a storage in the given location.
+     *
+     * @param location the location of the temp files
+     * @param hotLocation the location of the temp files that back mounted archives, or null to use the location
+     * @param quota the maximum number of bytes in temp files, or 0 for no limit
+     * @throws IOException if the process directory cannot be created
+     */
+    public VFSTempStorage(File location, File hotLocation, long quota) throws IOException {
+        this(location, hotLocation, quota, false);
+    }
+
+    /**
+     * Create a storage in the given location.
+     *
+     * @param location the location of the temp files
+     * @param hotLocation the location of the temp files that back mounted archives, or null to use the location
+     * @param quota the maximum number of bytes in temp files, or 0 for no limit
+     * @param deduplicate true to share a single copy of streamed archives with identical content
+     * @throws IOException if the process directory cannot be created
+     */
+    public VFSTempStorage(File location, File hotLocation, long quota, boolean deduplicate) throws IOException {
+        if (location == null)
+            throw MESSAGES.illegalArgumentNull("location");
+
+        this.quota = Math.max(0, quota);
+        this.deduplicate = deduplicate;
+        this.cold = new Tier(location);
+        Tier hotTier = cold;
+        if (hotLocation != null) {
+            try {
+                hotTier = new Tier(hotLocation);
+            } catch (IOException ex) {
+                LOGGER.debugf(ex, "Cannot use hot temp location: %s", hotLocation);
+            }
+        }
+        this.hot = hotTier;
+    }
+
+    /**
+     * Get the storage that is used for new temp files.
+     */
+    static VFSTempStorage getCurrent() {
+        VFSTempStorage storage = current;
+        return storage != null ? storage : DefaultHolder.STORAGE;
+    }
+
+    /**
+     * Use the given storage for new temp files, or the default storage if it is null.
+     * Temp files that already exist stay in the storage that they were created in.
+     */
+    static void setCurrent(VFSTempStorage storage) {
+        current = storage;
+    }
+
+    /**
+     * Get the process directory of this storage.
+     */
+    public File getLocation() {
+        return cold.processDir;
+    }
+
+    /**
+     * Get the process directory of the temp files that back mounted archives.
+     */
+    public File getHotLocation() {
+        return hot.processDir;
+    }
+
+    /**
+     * Get the maximum number of bytes in temp files, or 0 for no limit.
+     */
+    public long getQuota() {
+        return quota;
+    }
+
+    /**
+     * True if streamed archives with identical content share a single copy.
+     */
+    public boolean isDeduplicating() {
+        return deduplicate;
+    }
+
+    /**
+     * Get the number of distinct archives in the content-addressed store.
+     */
+    public int getSharedArchiveCount() {
+        synchronized (sharedArchives) {
+            return sharedArchives.size();
+        }
+    }
+
+    /**
+     * Get the number of bytes that are currently held in temp files.
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Remove the directories that were left by processes that ended without cleaning up.
+     *
+     * @return the number of removed directories
+     */
+    public int compact() {
+        int count = cold.compact();
+        if (hot != cold)
+            count += hot.compact();
+        return count;
+    }
+
+    /**
+     * Delete all temp files of this storage.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            if (tmpProvider != null)
+                VFSUtils.safeClose(tmpProvider);
+            tmpProvider = null;
+        }
+        synchronized (sharedArchives) {
+            sharedArchives.clear();
+        }
+        cold.close();
+        if (hot != cold)
+            hot.close();
+        usedBytes.set(0);
+    }
+
+    /**
+     * Get the provider for the temp files that jboss-vfs creates itself, such as extracted nested archives.
+     */
+    synchronized TempFileProvider getTempFileProvider() throws IOException {
+        if (tmpProvider == null)
+            tmpProvider = TempFileProvider.create(PROCESS_PREFIX, null);
+        return tmpProvider;
+    }
+
+    /**
+     * Create an area for the temp files of a single archive, which are all deleted when the area is closed.
+     *
+     * @param name the name of the archive
+     * @param hotData true if the files back a mounted archive
+     */
+    Area createArea(String name, boolean hotData) {
+        return new Area(hotData ? hot : cold, name);
+    }
+
+    /**
+     * Copy the given stream to the content-addressed store, while its SHA-256 digest is computed.
+     *
+     * If an archive with the same digest is already stored and its bytes are equal to the copy, the copy is dropped
+     * and the stored archive is shared. Every call must be paired with {@link VFSSharedArchive#release()}.
+     */
+    VFSSharedArchive share(String name, InputStream input) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+
+        Area area = createArea("shared", true);
+        File file;
+        try {
+            file = area.createFile(name, new DigestInputStream(input, digest));
+        } catch (IOException ex) {
+            area.close();
+            throw ex;
+        }
+
+        // The candidate is retained while its bytes are compared outside of the lock
+        String hash = toHexString(digest.digest());
+        VFSSharedArchive candidate;
+        synchronized (sharedArchives) {
+            candidate = sharedArchives.get(hash);
+            if (candidate != null && candidate.getLength() == area.getBytes())
+                candidate.retain();
+            else
+                candidate = null;
+        }
+        if (candidate != null) {
+            boolean equal;
+            try {
+                equal = contentEquals(candidate.getFile(), file);
+            } catch (IOException ex) {
+                candidate.release();
+                area.close();
+                throw ex;
+            }
+            if (equal) {
+                area.close();
+                return candidate;
+            }
+            candidate.release();
+        }
+
+        synchronized (sharedArchives) {
+            VFSSharedArchive shared = new VFSSharedArchive(this, hash, area, file);
+            if (sharedArchives.containsKey(hash) == false)
+                sharedArchives.put(hash, shared);
+            return shared;
+        }
+    }
+
+    private static boolean contentEquals(File file1, File file2) throws IOException {
+        InputStream input1 = new FileInputStream(file1);
+        try {
+            InputStream input2 = new FileInputStream(file2);
+            try {
+                byte[] bytes1 = new byte[8192];
+                byte[] bytes2 = new byte[8192];
+                while (true) {
+                    int count = readFully(input1, bytes1);
+                    if (count != readFully(input2, bytes2))
+                        return false;
+                    if (count == 0)
+                        return true;
+                    for (int i = 0; i < count; i++) {
+                        if (bytes1[i] != bytes2[i])
+                            return false;
+                    }
+                }
+            } finally {
+                input2.close();
+            }
+        } finally {
+            input1.close();
+        }
+    }
+
+    private static int readFully(InputStream input, byte[] bytes) throws IOException {
+        int count = 0;
+        while (count < bytes.length) {
+            int read = input.read(bytes, count, bytes.length - count);
+            if (read < 0)
+                break;
+            count += read;
+        }
+        return count;
+    }
+
+    void release(VFSSharedArchive shared) {
+        synchronized (sharedArchives) {
+            if (shared.releaseReference() == false)
+                return;
+            if (sharedArchives.get(shared.getHash()) == shared)
+                sharedArchives.remove(shared.getHash());
+        }
+        shared.getArea().close();
+    }
+
+    private static String toHexString(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "VFSTempStorage[" + cold.processDir + ",used=" + usedBytes.get() + ",quota=" + quota + "]";
+    }
+
+    // Reserve the given number of bytes within the quota
+    private boolean reserve(long bytes) {
+        if (quota == 0) {
+            usedBytes.addAndGet(bytes);
+            return true;
+        }
+        while (true) {
+            long used = usedBytes.get();
+            if (used + bytes > quota)
+                return false;
+            if (usedBytes.compareAndSet(used, used + bytes))
+                return true;
+        }
+    }
+
+    private void release(long bytes) {
+        usedBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * The temp files of a single archive.
+     */
+    final class Area implements Closeable {
+
+        private final Tier tier;
+        private final String name;
+        private File dir;
+        private long bytes;
+
+        private Area(Tier tier, String name) {
+            this.tier = tier;
+            this.name = name;
+        }
+
+        /**
+         * Copy the given stream to a file in this area. The stream is closed.
+         *
+         * @param path the file path relative to this area
+         * @throws IOException if the quota is exceeded, in which case the partial file is deleted
+         */
+        synchronized File createFile(String path, InputStream input) throws IOException {
+            File file = getFile(path);
+            file.getParentFile().mkdirs();
+            long written = 0;
+            try {
+                OutputStream output = new FileOutputStream(file);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = input.read(buffer)) > 0) {
+                        if (reserve(read) == false)
+                            throw MESSAGES.ioTempQuotaExceeded(quota, name);
+                        written += read;
+                        output.write(buffer, 0, read);
+                    }
+                } finally {
+                    VFSUtils.safeClose(output);
+                }
+            } catch (IOException ex) {
+                release(written);
+                file.delete();
+                throw ex;
+            } finally {
+                VFSUtils.safeClose(input);
+            }
+            bytes += written;
+            return file;
+        }
+
+        /**
+         * Get a file in this area, which must be passed to {@link #account(File)} once it is written.
+         *
+         * @param path the file path relative to this area
+         */
+        synchronized File getFile(String path) throws IOException {
+            if (dir == null) {
+                File areaDir = new File(tier.processDir, sanitize(name) + "-" + areaCount.incrementAndGet());
+                if (areaDir.mkdirs() == false && areaDir.isDirectory() == false)
+                    throw new IOException("Cannot create temp directory: " + areaDir);
+                dir = areaDir;
+            }
+            return new File(dir, path);
+        }
+
+        /**
+         * Account for a file that was written in this area.
+         *
+         * @throws IOException if the quota is exceeded, in which case the file is deleted
+         */
+        synchronized void account(File file) throws IOException {
+            long length = file.length();
+            if (reserve(length) == false) {
+                file.delete();
+                throw MESSAGES.ioTempQuotaExceeded(quota, name);
+            }
+            bytes += length;
+        }
+
+        /**
+         * Get the number of bytes held by this area.
+         */
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (dir != null) {
+                VFSUtils.recursiveDelete(dir);
+                dir = null;
+            }
+            release(bytes);
+            bytes = 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Area[" + name + ",bytes=" + bytes + "]";
+        }
+    }
+
+    // A locked process directory below a location
+    private static final class Tier {
+
+        private final File storageDir;
+        private final File processDir;
+        private final RandomAccessFile lockFile;
+        private final FileLock lock;
+
+        Tier(File location) throws IOException {
+            storageDir = new File(location.getAbsoluteFile(), STORAGE_DIR);
+            File dir = null;
+            for (int i = 0; i < 100 && dir == null; i++) {
+                File candidate = new File(storageDir, PROCESS_PREFIX + Long.toHexString(random.nextLong()));
+                storageDir.mkdirs();
+                if (candidate.mkdir())
+                    dir = candidate;
+            }
+            if (dir == null)
+                throw new IOException("Cannot create temp directory in: " + storageDir);
+
+            processDir = dir;
+            lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+            FileLock fileLock = null;
+            try {
+                fileLock = lockFile.getChannel().tryLock();
+            } catch (IOException ex) {
+                // Locks are not supported, the directory is protected by the grace period
+                LOGGER.debugf(ex, "Cannot lock temp directory: %s", dir);
+            }
+            lock = fileLock;
+        }
+
+        int compact() {
+            File[] dirs = storageDir.listFiles();
+            if (dirs == null)
+                return 0;
+
+            int count = 0;
+            for (File dir : dirs) {
+                if (dir.getName().startsWith(PROCESS_PREFIX) == false || dir.equals(processDir))
+                    continue;
+                if (isOrphan(dir)) {
+                    LOGGER.debugf("Remove orphaned temp directory: %s", dir);
+                    VFSUtils.recursiveDelete(dir);
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        // A process directory is orphaned if its lock is not held by any process
+        private static boolean isOrphan(File dir) {
+            File file = new File(dir, LOCK_FILE);
+            if (file.exists() == false)
+                return System.currentTimeMillis() - dir.lastModified() > ORPHAN_GRACE_MILLIS;
+
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                FileLock fileLock = raf.getChannel().tryLock();
+                if (fileLock == null)
+                    return false;
+                fileLock.release();
+                return true;
+            } catch (OverlappingFileLockException ex) {
+                // Locked by another storage in this process
+                return false;
+            } catch (IOException ex) {
+                return false;
+            } finally {
+                VFSUtils.safeClose(raf);
+            }
+        }
+
+        void close() {
+            try {
+                if (lock != null)
+                    lock.release();
+            } catch (IOException ex) {
+                // ignore
+            }
+            VFSUtils.safeClose(lockFile);
+            VFSUtils.recursiveDelete(processDir);
+        }
+    }
+
+    private static String sanitize(String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            boolean valid = (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '.' || ch == '-' || ch == '_';
+            builder.append(valid ? ch : '_');
+        }
+        return builder.length() > 0 ? builder.toString() : "_";
+    }
+
+    private static VFSTempStorage createDefault() {
+        String location = SecurityActions.getSystemProperty(VFSAdaptor30.PROPERTY_VFS_TEMP_DIR, null);
+        if (location == null)
+            location = SecurityActions.getSystemProperty("java.io.tmpdir", ".");
+        String hotLocation = SecurityActions.getSystemProperty(VFSAdaptor30.PROPERTY_VFS_TEMP_HOT_DIR, null);
+        long quota;
+        try {
+            quota = Long.parseLong(SecurityActions.getSystemProperty(VFSAdaptor30.PROPERTY_VFS_TEMP_QUOTA, "0").trim());
+        } catch (NumberFormatException ex) {
+            quota = 0;
+        }
+        boolean deduplicate = Boolean.parseBoolean(SecurityActions.getSystemProperty(VFSAdaptor30.PROPERTY_VFS_TEMP_DEDUPLICATE, "false"));
+
+        final VFSTempStorage storage;
+        try {
+            storage = new VFSTempStorage(new File(location), hotLocation != null ? new File(hotLocation) : null, quota, deduplicate);
+        } catch (IOException ex) {
+            throw MESSAGES.illegalStateCannotCreateTempFileProvider(ex);
+        }
+
+        Thread shutdownThread = new Thread("vfs-shutdown") {
+            public void run() {
+                storage.close();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownThread);
+
+        ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, "vfs-temp-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    storage.compact();
+                } catch (RuntimeException ex) {
+                    LOGGER.debugf(ex, "Cannot compact temp storage: %s", storage);
+                }
+            }
+        }, 0, COMPACT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        return storage;
+    }
+
+    // The default storage is created on first use
+    private static class DefaultHolder {
+        static final VFSTempStorage STORAGE = createDefault();
+    }
+}
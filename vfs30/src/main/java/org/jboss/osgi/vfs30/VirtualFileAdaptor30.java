@@ -45,26 +45,47 @@ package org.jboss.osgi.vfs30;
 import static org.jboss.osgi.vfs.VFSLogger.LOGGER;
 import static org.jboss.osgi.vfs.VFSMessages.MESSAGES;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.URL;
-import java.security.AccessController;
+import java.nio.ByteBuffer;
 import java.security.CodeSigner;
-import java.security.PrivilegedAction;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
 
+import org.jboss.osgi.vfs.ExtendedVirtualFile;
+import org.jboss.osgi.vfs.VFSMetrics;
+import org.jboss.osgi.vfs.VFSMetrics.Operation;
 import org.jboss.osgi.vfs.VirtualFile;
-import org.jboss.vfs.TempDir;
-import org.jboss.vfs.TempFileProvider;
+import org.jboss.osgi.vfs.internal.ByteBufferInputStream;
+import org.jboss.osgi.vfs.internal.ZipDirectory;
 import org.jboss.vfs.VFS;
 import org.jboss.vfs.VFSUtils;
 import org.jboss.vfs.VirtualJarInputStream;
@@ -75,67 +96,135 @@ import org.jboss.vfs.VirtualJarInputStream;
  * @author thomas.diesler@jboss.com
  * @since 02-Mar-2010
  */
-class VirtualFileAdaptor30 implements VirtualFile {
+class VirtualFileAdaptor30 implements ExtendedVirtualFile {
 
     private final org.jboss.vfs.VirtualFile vfsFile;
-    private IOException leakDebuggingStack;
+    private final VirtualFileAdaptor30 owner;
+    private final Resources resources;
+    private volatile ConcurrentMap<org.jboss.vfs.VirtualFile, VirtualFileAdaptor30> navigationCache;
+    private MountLeakTracker.MountReference leakReference;
+    private volatile int mountState;
     private Closeable mount;
-    private TempDir streamDir;
+    private volatile File mountSource;
+    private long mountTimestamp;
+    private VFSTempStorage.Area mountArea;
+    private VFSSharedArchive sharedArchive;
+    private volatile VFSEntryIndex entryIndex;
+    private volatile ByteBuffer memoryArchive;
+    private volatile ZipDirectory zipDirectory;
+    private volatile boolean zipDirectoryUnsupported;
+    private String entryPath;
+    private VFSTempStorage.Area streamArea;
     private File streamFile;
+    private volatile VFSDirectoryWatch directoryWatch;
 
-    private static boolean LEAK_DEBUGGING;
-    static {
-        if (System.getSecurityManager() != null) {
-            LEAK_DEBUGGING = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
-                public Boolean run() {
-                    return "true".equals(System.getProperty(PROPERTY_VFS_LEAK_DEBUGGING));
-                }
-            });
-        } else {
-            LEAK_DEBUGGING = "true".equals(System.getProperty(PROPERTY_VFS_LEAK_DEBUGGING));
+    private static final AtomicLong liveMounts = new AtomicLong();
+
+    // The mount states, a known state is only changed by close()
+    private static final int MOUNT_UNKNOWN = 0;
+    private static final int MOUNTED = 1;
+    private static final int NOT_MOUNTED = 2;
+
+    VirtualFileAdaptor30(String name, InputStream input) throws IOException {
+        this(VFS.getChild(name));
+        if (input == null)
+            throw MESSAGES.illegalArgumentNull("input");
+
+        // Mount small archives in memory, larger ones spill to a temp file
+        long start = VFSMetrics.start();
+        int threshold = getMemoryMountThreshold();
+        if (threshold > 0) {
+            byte[] bytes = readAtMost(input, threshold + 1);
+            if (bytes.length <= threshold && mountInMemory(bytes, start))
+                return;
+            input = new SequenceInputStream(new ByteArrayInputStream(bytes), input);
         }
-    }
 
-    private static final TempFileProvider tmpProvider;
-    static {
+        // Keep the copy of the stream as the backing file of the mount
+        String fileName = vfsFile.getName();
+        VFSTempStorage storage = VFSTempStorage.getCurrent();
+        mountSource = createMountSource(storage, fileName, input);
         try {
-            tmpProvider = TempFileProvider.create("osgitmp-", null);
+            mount = VFS.mountZip(mountSource, vfsFile, storage.getTempFileProvider());
+            mountState = MOUNTED;
+            mounted(start);
         } catch (IOException ex) {
-            throw MESSAGES.illegalStateCannotCreateTempFileProvider(ex);
+            releaseMountSource();
+            throw ex;
         }
+    }
 
-        Thread shutdownThread = new Thread("vfs-shutdown") {
-            public void run() {
-                try {
-                    tmpProvider.close();
-                } catch (IOException ex) {
-                    throw MESSAGES.illegalStateCannotCloseTempFileProvider(ex);
-                }
-            }
-        };
-        Runtime.getRuntime().addShutdownHook(shutdownThread);
+    private boolean mountInMemory(byte[] bytes, long start) throws IOException {
+        ByteBuffer buffer;
+        if (Boolean.parseBoolean(SecurityActions.getSystemProperty(VFSAdaptor30.PROPERTY_VFS_MEMORY_MOUNT_DIRECT, "false"))) {
+            buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes);
+            buffer.flip();
+        } else {
+            buffer = ByteBuffer.wrap(bytes);
+        }
+
+        ZipDirectory directory;
+        try {
+            directory = ZipDirectory.parse(buffer);
+        } catch (ZipException ex) {
+            LOGGER.debugf(ex, "Cannot mount in memory: %s", vfsFile);
+            return false;
+        }
+
+        // The code signers of signed archives are only available from the temp file mount
+        if (directory.isSigned())
+            return false;
+
+        mount = VFS.mount(vfsFile, new VFSMemoryFileSystem(buffer, directory, vfsFile.getName(), vfsFile, VFSTempStorage.getCurrent()));
+        memoryArchive = buffer;
+        zipDirectory = directory;
+        mountState = MOUNTED;
+        mounted(start);
+        return true;
     }
 
-    VirtualFileAdaptor30(String name, InputStream input) throws IOException {
-        this(VFS.getChild(name));
-        if (input == null)
-            throw MESSAGES.illegalArgumentNull("input");
-        mount = VFS.mountZip(input, vfsFile.getName(), vfsFile, tmpProvider);
+    private static byte[] readAtMost(InputStream input, int limit) throws IOException {
+        byte[] bytes = new byte[Math.min(limit, 8192)];
+        int count = 0;
+        while (count < limit) {
+            if (count == bytes.length)
+                bytes = Arrays.copyOf(bytes, (int) Math.min((long) limit, 2L * bytes.length));
+            int read = input.read(bytes, count, bytes.length - count);
+            if (read < 0)
+                break;
+            count += read;
+        }
+        return count == bytes.length ? bytes : Arrays.copyOf(bytes, count);
+    }
+
+    private static int getMemoryMountThreshold() {
+        String value = SecurityActions.getSystemProperty(VFSAdaptor30.PROPERTY_VFS_MEMORY_MOUNT_THRESHOLD, "0");
+        long threshold;
+        try {
+            threshold = Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            threshold = 0;
+        }
+        return (int) Math.max(0, Math.min(threshold, Integer.MAX_VALUE - 16));
     }
 
     VirtualFileAdaptor30(org.jboss.vfs.VirtualFile vfsFile) {
         if (vfsFile == null)
             throw MESSAGES.illegalArgumentNull("file");
         this.vfsFile = vfsFile;
-        if (LEAK_DEBUGGING == true)
-            leakDebuggingStack = new IOException("VirtualFile created in this stack frame not closed: " + vfsFile);
+        this.owner = this;
+        this.resources = new Resources();
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        if (mount != null && leakDebuggingStack != null) {
-            leakDebuggingStack.printStackTrace(System.err);
-        }
+    /**
+     * Create an adaptor that was reached by navigation from the given owner.
+     * Such adaptors are interned by the owner.
+     */
+    private VirtualFileAdaptor30(org.jboss.vfs.VirtualFile vfsFile, VirtualFileAdaptor30 owner) {
+        this.vfsFile = vfsFile;
+        this.owner = owner;
+        this.resources = owner.resources;
     }
 
     public org.jboss.vfs.VirtualFile getVirtualFile() {
@@ -151,13 +240,85 @@ class VirtualFileAdaptor30 implements VirtualFile {
     }
 
     public boolean isFile() throws IOException {
+        // A nested archive that is mounted is a directory, even though the owner holds it as a file entry
+        ZipDirectory directory = getOwnerZipDirectory();
+        if (directory != null && mountState != MOUNTED) {
+            int idx = directory.lookup(getEntryPath());
+            if (idx != ZipDirectory.NOT_FOUND)
+                return directory.isDirectory(idx) == false;
+        }
         return vfsFile.isFile();
     }
 
     public boolean isDirectory() throws IOException {
+        ZipDirectory directory = getOwnerZipDirectory();
+        if (directory != null && mountState != MOUNTED) {
+            int idx = directory.lookup(getEntryPath());
+            if (idx != ZipDirectory.NOT_FOUND)
+                return directory.isDirectory(idx);
+        }
         return vfsFile.isDirectory();
     }
 
+    public long getLastModified() throws IOException {
+        ZipDirectory directory = getOwnerZipDirectory();
+        if (directory != null && mountState != MOUNTED) {
+            int idx = directory.lookup(getEntryPath());
+            if (idx != ZipDirectory.NOT_FOUND)
+                return directory.getLastModified(idx);
+        }
+        return vfsFile.getLastModified();
+    }
+
+    public long getSize() throws IOException {
+        ZipDirectory directory = getOwnerZipDirectory();
+        if (directory != null && mountState != MOUNTED) {
+            int idx = directory.lookup(getEntryPath());
+            if (idx != ZipDirectory.NOT_FOUND)
+                return directory.getSize(idx);
+        }
+        return vfsFile.isFile() ? vfsFile.getSize() : 0;
+    }
+
+    /**
+     * Get the central directory of the archive that this file was reached from.
+     *
+     * @return the directory or null if this file is not an entry of a mapped archive
+     */
+    private ZipDirectory getOwnerZipDirectory() {
+        if (owner == this || getEntryPath() == null)
+            return null;
+        return owner.getZipDirectory();
+    }
+
+    /**
+     * True if the entries below this file are held by the central directory of the owner. This is the case for the
+     * directories of a mapped archive, but not for a nested archive, which is mounted with a directory of its own.
+     */
+    private boolean hasOwnerEntries() {
+        ZipDirectory directory = getOwnerZipDirectory();
+        if (directory == null)
+            return false;
+        int idx = directory.lookup(getEntryPath());
+        return idx == ZipDirectory.NOT_FOUND || directory.isDirectory(idx);
+    }
+
+    /**
+     * Get the path of this file relative to the owning archive, or null if it is not within the archive.
+     */
+    private String getEntryPath() {
+        String path = entryPath;
+        if (path == null && owner != this) {
+            String rootPath = owner.vfsFile.getPathName();
+            String pathName = vfsFile.getPathName();
+            if (pathName.length() > rootPath.length() && pathName.startsWith(rootPath) && pathName.charAt(rootPath.length()) == '/') {
+                path = pathName.substring(rootPath.length() + 1);
+                entryPath = path;
+            }
+        }
+        return path;
+    }
+
     @Override
     public URL toURL() throws IOException {
         URL url = vfsFile.toURL();
@@ -166,48 +327,122 @@ class VirtualFileAdaptor30 implements VirtualFile {
 
     @Override
     public URL getStreamURL() throws IOException {
-        if (vfsFile.isFile() == true)
-            return vfsFile.toURL();
+        long start = VFSMetrics.start();
+        try {
+            synchronized (this) {
+                // An in-memory archive is written to a temp file on first access
+                if (mountSource == null && memoryArchive != null) {
+                    InputStream input = new ByteBufferInputStream(memoryArchive.duplicate(), false);
+                    mountSource = createMountSource(VFSTempStorage.getCurrent(), getName(), input);
+                }
 
-        synchronized (this) {
-            if (streamFile == null) {
-                streamDir = tmpProvider.createTempDir("urlstream");
-                streamFile = streamDir.getFile(getName());
+                // A mounted archive serves the original archive bytes
+                if (mountSource != null)
+                    return mountSource.toURI().toURL();
+            }
+
+            if (vfsFile.isFile() == true)
+                return vfsFile.toURL();
+
+            synchronized (this) {
+                if (streamFile == null) {
+                    VFSTempStorage.Area area = VFSTempStorage.getCurrent().createArea("urlstream", false);
+                    try {
+                        File file = area.getFile(getName());
+                        long buildStart = VFSMetrics.start();
+                        writeStoredJar(file);
+                        VFSMetrics.completed(Operation.BUILD_STREAM_JAR, buildStart);
+                        area.account(file);
+                        streamFile = file;
+                    } catch (IOException ex) {
+                        area.close();
+                        throw ex;
+                    }
+                    streamArea = resources.hold(area);
+                }
+                return streamFile.toURI().toURL();
+            }
+        } finally {
+            VFSMetrics.completed(Operation.GET_STREAM_URL, start);
+        }
+    }
+
+    // Pack the exploded directory into a jar with stored (uncompressed) entries
+    private void writeStoredJar(File target) throws IOException {
+        VirtualJarInputStream jarIn = (VirtualJarInputStream) vfsFile.openStream();
+        try {
+            JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(target));
+            try {
+                jarOut.setMethod(ZipOutputStream.STORED);
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+                // The manifest must be the first entry
+                Manifest manifest = jarIn.getManifest();
+                if (manifest != null) {
+                    manifest.write(buffer);
+                    putStoredEntry(jarOut, new ZipEntry(JarFile.MANIFEST_NAME), buffer);
+                }
 
-                JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(streamFile));
-                VirtualJarInputStream jarIn = (VirtualJarInputStream) vfsFile.openStream();
                 ZipEntry nextEntry = jarIn.getNextEntry();
                 while (nextEntry != null) {
-                    jarOut.putNextEntry(nextEntry);
-                    VFSUtils.copyStream(jarIn, jarOut);
+                    String name = nextEntry.getName();
+                    if (JarFile.MANIFEST_NAME.equalsIgnoreCase(name) == false) {
+                        buffer.reset();
+                        if (nextEntry.isDirectory() == false)
+                            VFSUtils.copyStream(jarIn, buffer);
+                        ZipEntry entry = new ZipEntry(name);
+                        entry.setTime(nextEntry.getTime());
+                        putStoredEntry(jarOut, entry, buffer);
+                    }
                     nextEntry = jarIn.getNextEntry();
                 }
+            } finally {
                 jarOut.close();
-                jarIn.close();
             }
+        } finally {
+            VFSUtils.safeClose(jarIn);
         }
-        return streamFile.toURI().toURL();
+    }
+
+    private static void putStoredEntry(ZipOutputStream jarOut, ZipEntry entry, ByteArrayOutputStream content) throws IOException {
+        byte[] bytes = content.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        jarOut.putNextEntry(entry);
+        jarOut.write(bytes);
+        jarOut.closeEntry();
     }
 
     @Override
     public VirtualFile getParent() {
         org.jboss.vfs.VirtualFile parent = vfsFile.getParent();
-        return parent != null ? new VirtualFileAdaptor30(parent) : null;
+        return parent != null ? owner.intern(parent) : null;
     }
 
     @Override
     public VirtualFile getChild(String path) throws IOException {
-        org.jboss.vfs.VirtualFile child = getMountedChild(path);
-        boolean exists = child != null && child.exists();
-        LOGGER.tracef("getChild: %s => %s (%s)", path, child, exists);
-        return exists ? new VirtualFileAdaptor30(child) : null;
+        long start = VFSMetrics.start();
+        try {
+            if (path == null)
+                throw MESSAGES.illegalArgumentNull("path");
+
+            org.jboss.vfs.VirtualFile child = getExistingChild(path);
+            LOGGER.tracef("getChild: %s => %s", path, child);
+            return child != null ? owner.intern(child) : null;
+        } finally {
+            VFSMetrics.completed(Operation.GET_CHILD, start);
+        }
     }
 
     @Override
     public List<VirtualFile> getChildrenRecursively() throws IOException {
         List<VirtualFile> files = new ArrayList<VirtualFile>();
         for (org.jboss.vfs.VirtualFile child : getMountedChildrenRecursively())
-            files.add(new VirtualFileAdaptor30(child));
+            files.add(owner.intern(child));
         return Collections.unmodifiableList(files);
     }
 
@@ -215,56 +450,276 @@ class VirtualFileAdaptor30 implements VirtualFile {
     public List<VirtualFile> getChildren() throws IOException {
         List<VirtualFile> files = new ArrayList<VirtualFile>();
         for (org.jboss.vfs.VirtualFile child : getMountedChildren())
-            files.add(new VirtualFileAdaptor30(child));
+            files.add(owner.intern(child));
         return Collections.unmodifiableList(files);
     }
 
     @Override
     public Enumeration<URL> findEntries(String path, String pattern, boolean recurse) throws IOException {
-        if (path == null)
-            throw MESSAGES.illegalArgumentNull("path");
+        long start = VFSMetrics.start();
+        try {
+            if (path == null)
+                throw MESSAGES.illegalArgumentNull("path");
 
-        if (pattern == null)
-            pattern = "*";
+            if (pattern == null)
+                pattern = "*";
 
-        if (path.startsWith("/"))
-            path = path.substring(1);
+            if (path.startsWith("/"))
+                path = path.substring(1);
 
-        org.jboss.vfs.VirtualFile child = getMountedChild(path);
-        if (child.exists() == false)
-            return null;
+            VFSEntryIndex index = getEntryIndex();
+            if (index != null && VFSEntryIndex.isSimplePath(path)) {
+                int idx = index.lookup(path);
+                if (idx == VFSEntryIndex.NOT_FOUND)
+                    return null;
 
-        return new VFSFindEntriesEnumeration(vfsFile, child, pattern, recurse);
+                return new VFSFindEntriesEnumeration(index, idx, pattern, recurse);
+            }
+
+            org.jboss.vfs.VirtualFile child = getMountedChild(path);
+            if (child.exists() == false)
+                return null;
+
+            return new VFSFindEntriesEnumeration(vfsFile, child, pattern, recurse);
+        } finally {
+            VFSMetrics.completed(Operation.FIND_ENTRIES, start);
+        }
     }
 
     @Override
     public Enumeration<String> getEntryPaths(String path) throws IOException {
-        if (path == null)
-            throw MESSAGES.illegalArgumentNull("path");
+        long start = VFSMetrics.start();
+        try {
+            if (path == null)
+                throw MESSAGES.illegalArgumentNull("path");
+
+            if (path.startsWith("/"))
+                path = path.substring(1);
+
+            // Paths are taken from the own index, or from the index of the owner relative to this file
+            if (VFSEntryIndex.isSimplePath(path)) {
+                String prefix = null;
+                VFSEntryIndex index = getEntryIndex();
+                if (index == null && owner != this) {
+                    prefix = getEntryPath();
+                    index = prefix != null ? owner.getEntryIndex() : null;
+                }
+                if (index != null) {
+                    int idx = index.lookup(prefix != null ? prefix + "/" + path : path);
+                    if (idx == VFSEntryIndex.NOT_FOUND)
+                        return null;
+
+                    return new VFSEntryPathsEnumeration(index, idx, prefix != null ? prefix.length() + 1 : 0);
+                }
+            }
+
+            org.jboss.vfs.VirtualFile child;
+            if (path.length() > 0) {
+                child = getMountedChild(path);
+            } else {
+                ensureMounted();
+                child = vfsFile;
+            }
+
+            if (child.exists() == false)
+                return null;
+
+            return new VFSEntryPathsEnumeration(vfsFile, child);
+        } finally {
+            VFSMetrics.completed(Operation.GET_ENTRY_PATHS, start);
+        }
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        long start = VFSMetrics.start();
+        try {
+            ByteBuffer memory = memoryArchive;
+            if (memory != null)
+                return new ByteBufferInputStream(memory.duplicate(), false);
+            File source = mountSource;
+            if (source != null)
+                return new FileInputStream(source);
+
+            // Entries of a mounted archive may be served from the entry cache
+            if (owner != this) {
+                InputStream input = owner.openCachedEntry(vfsFile);
+                if (input != null)
+                    return input;
+            }
+
+            return vfsFile.openStream();
+        } finally {
+            VFSMetrics.completed(Operation.OPEN_STREAM, start);
+        }
+    }
+
+    @Override
+    public void readEntries(Collection<String> paths, EntryHandler handler) throws IOException {
+        if (paths == null)
+            throw MESSAGES.illegalArgumentNull("paths");
+        if (handler == null)
+            throw MESSAGES.illegalArgumentNull("handler");
+
+        ensureMounted();
+        ZipDirectory directory = getZipDirectory();
+
+        if (directory == null) {
+            readEntriesFromTree(paths, handler);
+            return;
+        }
+
+        // Resolve the entries and read them in the order of their local headers
+        final List<Integer> indexes = new ArrayList<Integer>(paths.size());
+        final List<String> found = new ArrayList<String>(paths.size());
+        List<String> others = new ArrayList<String>();
+        for (String path : paths) {
+            String entryPath = path.startsWith("/") ? path.substring(1) : path;
+            if (VFSEntryIndex.isSimplePath(entryPath) == false) {
+                others.add(path);
+                continue;
+            }
+            int idx = directory.lookup(entryPath);
+            if (idx != ZipDirectory.NOT_FOUND && directory.isDirectory(idx) == false) {
+                indexes.add(idx);
+                found.add(path);
+            }
+        }
+        Integer[] order = new Integer[indexes.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        final ZipDirectory zipdir = directory;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                long offset1 = zipdir.getLocalHeaderOffset(indexes.get(o1));
+                long offset2 = zipdir.getLocalHeaderOffset(indexes.get(o2));
+                return offset1 < offset2 ? -1 : (offset1 == offset2 ? 0 : 1);
+            }
+        });
 
-        if (path.startsWith("/"))
-            path = path.substring(1);
+        Inflater inflater = new Inflater(true);
+        try {
+            for (Integer pos : order)
+                handler.handleEntry(found.get(pos), directory.readEntry(indexes.get(pos), inflater));
+        } finally {
+            inflater.end();
+        }
+        if (others.isEmpty() == false)
+            readEntriesFromTree(others, handler);
+    }
 
-        org.jboss.vfs.VirtualFile child;
-        if (path.length() > 0) {
-            child = getMountedChild(path);
+    private void readEntriesFromTree(Collection<String> paths, EntryHandler handler) throws IOException {
+        for (String path : paths) {
+            VirtualFile child = getChild(path);
+            if (child != null && child.isFile()) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                InputStream input = child.openStream();
+                try {
+                    org.jboss.osgi.vfs.VFSUtils.copyStream(input, output);
+                } finally {
+                    VFSUtils.safeClose(input);
+                }
+                handler.handleEntry(path, ByteBuffer.wrap(output.toByteArray()).asReadOnlyBuffer());
+            }
+        }
+    }
+
+    @Override
+    public void visit(Visitor visitor) throws IOException {
+        if (visitor == null)
+            throw MESSAGES.illegalArgumentNull("visitor");
+
+        // Entries of a mapped archive are walked in its central directory
+        ZipDirectory directory;
+        int idx = 0;
+        if (hasOwnerEntries()) {
+            directory = getOwnerZipDirectory();
+            idx = directory.lookup(getEntryPath());
         } else {
             ensureMounted();
-            child = vfsFile;
+            directory = getZipDirectory();
         }
+        if (directory != null && idx != ZipDirectory.NOT_FOUND)
+            visitZipDirectory(directory, idx, visitor);
+        else
+            visitTree(vfsFile, vfsFile.getPathName().length() + 1, visitor);
+    }
 
-        if (child.exists() == false)
-            return null;
+    // Walk the sibling links with a stack of the enclosing directories
+    private void visitZipDirectory(ZipDirectory directory, int dirIdx, Visitor visitor) throws IOException {
+        int prefixLength = dirIdx == 0 ? 0 : directory.getPath(dirIdx).length() + 1;
+        int[] parents = new int[8];
+        int depth = 0;
+        int idx = directory.getFirstChild(dirIdx);
+        while (idx != 0 || depth > 0) {
+            if (idx == 0) {
+                idx = directory.getNextSibling(parents[--depth]);
+                continue;
+            }
+            boolean isDirectory = directory.isDirectory(idx);
+            VisitResult result = VisitResult.CONTINUE;
+            String path = directory.getPath(idx).substring(prefixLength);
+            if (visitor.accept(path, isDirectory))
+                result = visitor.visit(owner.intern(vfsFile.getChild(path)));
+            if (result == VisitResult.TERMINATE)
+                return;
+            if (isDirectory && result == VisitResult.CONTINUE && directory.getFirstChild(idx) != 0) {
+                if (depth == parents.length)
+                    parents = Arrays.copyOf(parents, depth * 2);
+                parents[depth++] = idx;
+                idx = directory.getFirstChild(idx);
+            } else {
+                idx = directory.getNextSibling(idx);
+            }
+        }
+    }
 
-        return new VFSEntryPathsEnumeration(vfsFile, child);
+    // Walk the mounted tree one directory at a time
+    private boolean visitTree(org.jboss.vfs.VirtualFile dir, int prefixLength, Visitor visitor) throws IOException {
+        List<org.jboss.vfs.VirtualFile> children = dir == vfsFile ? getMountedChildren() : dir.getChildren();
+        for (org.jboss.vfs.VirtualFile child : children) {
+            boolean isDirectory = child.isDirectory();
+            VisitResult result = VisitResult.CONTINUE;
+            if (visitor.accept(child.getPathName().substring(prefixLength), isDirectory))
+                result = visitor.visit(owner.intern(child));
+            if (result == VisitResult.TERMINATE)
+                return false;
+            if (isDirectory && result == VisitResult.CONTINUE && visitTree(child, prefixLength, visitor) == false)
+                return false;
+        }
+        return true;
     }
 
-    @Override
-    public InputStream openStream() throws IOException {
-        if (mount != null)
-            return getStreamURL().openStream();
+    /**
+     * Get the central directory of the mounted archive, which is read on first access.
+     *
+     * @return the directory or null if this file is not mounted, or its archive cannot be read directly
+     */
+    private ZipDirectory getZipDirectory() {
+        ZipDirectory directory = zipDirectory;
+        if (directory != null || mountSource == null || zipDirectoryUnsupported)
+            return directory;
 
-        return vfsFile.openStream();
+        synchronized (this) {
+            if (zipDirectory == null && mountSource != null && zipDirectoryUnsupported == false)
+                mapZipArchive();
+            return zipDirectory;
+        }
+    }
+
+    // Parse the central directory, only the private temp copy of a stream is mapped, not a file that the user may change
+    private void mapZipArchive() {
+        if (sharedArchive != null) {
+            zipDirectory = sharedArchive.getZipDirectory();
+            zipDirectoryUnsupported = zipDirectory == null;
+            return;
+        }
+        try {
+            zipDirectory = mountArea != null ? ZipDirectory.map(mountSource) : ZipDirectory.read(mountSource);
+        } catch (IOException ex) {
+            LOGGER.debugf(ex, "Cannot read central directory: %s", mountSource);
+            zipDirectoryUnsupported = true;
+        }
     }
 
     @Override
@@ -277,19 +732,133 @@ class VirtualFileAdaptor30 implements VirtualFile {
         return vfsFile.getCodeSigners();
     }
 
+    /**
+     * Start watching this directory root for changes, if it is not watched already.
+     *
+     * @throws IllegalArgumentException if this is not a directory root
+     */
+    VFSDirectoryWatch getDirectoryWatch() throws IOException {
+        VFSDirectoryWatch watch = directoryWatch;
+        if (watch != null)
+            return watch;
+
+        ensureMounted();
+        if (owner != this || mountState == MOUNTED || vfsFile.isDirectory() == false)
+            throw MESSAGES.illegalArgumentNotDirectoryRoot(this);
+
+        synchronized (this) {
+            if (directoryWatch == null) {
+                directoryWatch = resources.hold(new VFSDirectoryWatch(vfsFile.getPhysicalFile()));
+                VFSDirectoryWatch.startScanning(this);
+            }
+            return directoryWatch;
+        }
+    }
+
+    /**
+     * Drain the change events of the watched directory, update the caches for the changed paths and notify the listeners.
+     *
+     * @return true if anything changed since the previous scan
+     */
+    boolean checkForChanges() throws IOException {
+        return checkForChanges(getDirectoryWatch());
+    }
+
+    private boolean checkForChanges(VFSDirectoryWatch watch) throws IOException {
+        VFSDirectoryWatch.Changes changes = watch.scan();
+        if (changes.isEmpty())
+            return false;
+
+        applyChanges(changes);
+        Set<String> added = Collections.unmodifiableSet(changes.added);
+        Set<String> modified = Collections.unmodifiableSet(changes.modified);
+        Set<String> removed = Collections.unmodifiableSet(changes.removed);
+        for (VFSAdaptor30.ChangeListener listener : watch.getListeners()) {
+            try {
+                listener.filesChanged(this, added, modified, removed);
+            } catch (RuntimeException ex) {
+                LOGGER.debugf(ex, "Change listener failed: %s", listener);
+            }
+        }
+        return true;
+    }
+
+    // The entry index is updated in place of a new walk, only the other cached state for the changed paths is dropped
+    private void applyChanges(VFSDirectoryWatch.Changes changes) {
+        if (changes.affects(JarFile.MANIFEST_NAME))
+            org.jboss.osgi.vfs.VFSUtils.evictManifest(this);
+        if (changes.overflow || changes.added.isEmpty() == false || changes.removed.isEmpty() == false) {
+            // Do not race with an index that is being built, which may already contain some of the changes
+            synchronized (this) {
+                VFSEntryIndex index = entryIndex;
+                if (changes.overflow)
+                    entryIndex = null;
+                else if (index != null)
+                    entryIndex = index.withChanges(changes.added, changes.removed);
+            }
+        }
+        discardStreamFile();
+
+        ConcurrentMap<org.jboss.vfs.VirtualFile, VirtualFileAdaptor30> cache = navigationCache;
+        if (cache == null)
+            return;
+        for (Map.Entry<org.jboss.vfs.VirtualFile, VirtualFileAdaptor30> entry : cache.entrySet()) {
+            VirtualFileAdaptor30 file = entry.getValue();
+            String path = file.getEntryPath();
+            if (path == null)
+                continue;
+            if (changes.removes(path) || changes.removed.contains(path + "/")) {
+                cache.remove(entry.getKey(), file);
+                file.discardStreamFile();
+            } else if (changes.affects(path + "/")) {
+                file.discardStreamFile();
+            }
+        }
+    }
+
+    // Delete the stored jar of an exploded directory, it is built again on demand
+    private synchronized void discardStreamFile() {
+        if (streamArea != null) {
+            resources.release(streamArea);
+            streamArea = null;
+            streamFile = null;
+        }
+    }
+
     @Override
     public void close() {
+        ConcurrentMap<org.jboss.vfs.VirtualFile, VirtualFileAdaptor30> cache;
         synchronized (this) {
-            VFSUtils.safeClose(mount);
-            leakDebuggingStack = null;
+            if (directoryWatch != null) {
+                VFSDirectoryWatch.stopScanning(this);
+                resources.release(directoryWatch);
+                directoryWatch = null;
+            }
+            discardStreamFile();
+            org.jboss.osgi.vfs.VFSUtils.evictManifest(this);
+            if (mount != null)
+                resources.release(mount);
+            releaseMountSource();
+            if (leakReference != null) {
+                MountLeakTracker.untrack(leakReference);
+                leakReference = null;
+            }
+            mountState = MOUNT_UNKNOWN;
+            entryIndex = null;
+            cache = navigationCache;
+            navigationCache = null;
+            mountSource = null;
+            memoryArchive = null;
+            zipDirectory = null;
+            zipDirectoryUnsupported = false;
             mount = null;
             VFSAdaptor30.unregister(this);
-            if (streamFile != null) {
-                File streamParent = streamFile.getParentFile();
-                streamFile.delete();
-                streamParent.delete();
-                streamFile = null;
-            }
+        }
+
+        // Nested archives that were reached by navigation hold their own mounts and temp files
+        if (cache != null) {
+            for (VirtualFileAdaptor30 file : cache.values())
+                file.close();
         }
     }
 
@@ -299,6 +868,44 @@ class VirtualFileAdaptor30 implements VirtualFile {
         return accept;
     }
 
+    private org.jboss.vfs.VirtualFile getExistingChild(String path) throws IOException {
+        // Entries of a mapped archive are looked up in its central directory
+        if (VFSEntryIndex.isSimplePath(path)) {
+            ZipDirectory directory;
+            String prefix;
+            if (hasOwnerEntries()) {
+                directory = getOwnerZipDirectory();
+                prefix = getEntryPath() + "/";
+            } else {
+                ensureMounted();
+                directory = getZipDirectory();
+                prefix = "";
+            }
+            if (directory != null) {
+                int idx = directory.lookup(prefix + trimSlashes(path));
+                return idx != ZipDirectory.NOT_FOUND ? vfsFile.getChild(path) : null;
+            }
+        }
+
+        // A watched directory is looked up live, its index only knows the changes that were delivered so far
+        VFSEntryIndex index = directoryWatch == null ? getEntryIndex() : null;
+        if (index != null && VFSEntryIndex.isSimplePath(path))
+            return index.lookup(path) != VFSEntryIndex.NOT_FOUND ? vfsFile.getChild(path) : null;
+
+        org.jboss.vfs.VirtualFile child = vfsFile.getChild(path);
+        return child != null && child.exists() ? child : null;
+    }
+
+    private static String trimSlashes(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/')
+            start++;
+        while (end > start && path.charAt(end - 1) == '/')
+            end--;
+        return path.substring(start, end);
+    }
+
     private org.jboss.vfs.VirtualFile getMountedChild(String path) throws IOException {
         ensureMounted();
         return vfsFile.getChild(path);
@@ -314,17 +921,177 @@ class VirtualFileAdaptor30 implements VirtualFile {
         return vfsFile.getChildrenRecursively();
     }
 
+    /**
+     * Mount the archive on first access. Once the mount state is known, this is a single volatile read.
+     */
     private void ensureMounted() throws IOException {
+        if (mountState != MOUNT_UNKNOWN)
+            return;
+
         synchronized (this) {
+            if (mountState != MOUNT_UNKNOWN)
+                return;
+
             if (mount == null && acceptForMount()) {
-                mount = VFS.mountZip(vfsFile, vfsFile, tmpProvider);
+                // Mount the physical file directly, which avoids a temp copy for archives on disk
+                long start = VFSMetrics.start();
+                File source = vfsFile.getPhysicalFile();
+                mount = VFS.mountZip(source, vfsFile, VFSTempStorage.getCurrent().getTempFileProvider());
+                mountTimestamp = source.lastModified();
+                mountSource = source;
+                mounted(start);
             }
+            mountState = mount != null ? MOUNTED : NOT_MOUNTED;
+        }
+    }
+
+    private InputStream openCachedEntry(org.jboss.vfs.VirtualFile file) throws IOException {
+        VFSEntryContentCache cache = VFSEntryContentCache.getInstance();
+        if (cache == null)
+            return null;
+
+        // Only archives that are mounted from their own or a shared file are cached, not private temp copies of streams
+        File source = mountSource;
+        if (source == null || mountArea != null)
+            return null;
+        return cache.openStream(source.getPath(), mountTimestamp, file);
+    }
+
+    // Copy a stream to the backing file of the mount, which is shared by identical archives if the storage deduplicates
+    private File createMountSource(VFSTempStorage storage, String fileName, InputStream input) throws IOException {
+        if (storage.isDeduplicating()) {
+            sharedArchive = resources.hold(storage.share(fileName, input));
+            return sharedArchive.getFile();
+        }
+
+        VFSTempStorage.Area area = storage.createArea(fileName, true);
+        try {
+            File file = area.createFile(fileName, input);
+            mountArea = resources.hold(area);
+            return file;
+        } catch (IOException ex) {
+            area.close();
+            throw ex;
+        }
+    }
+
+    private void releaseMountSource() {
+        if (mountArea != null) {
+            resources.release(mountArea);
+            mountArea = null;
+        }
+        if (sharedArchive != null) {
+            resources.release(sharedArchive);
+            sharedArchive = null;
+        }
+        mountSource = null;
+    }
+
+    private void mounted(long start) {
+        mount = resources.hold(new MountHandle(mount));
+        liveMounts.incrementAndGet();
+        if (MountLeakTracker.isEnabled())
+            leakReference = MountLeakTracker.track(this, vfsFile.getPathName());
+        VFSMetrics.completed(Operation.MOUNT, start);
+    }
+
+    Resources getResources() {
+        return resources;
+    }
+
+    static long getLiveMounts() {
+        return liveMounts.get();
+    }
+
+    static long getTempBytes() {
+        return VFSTempStorage.getCurrent().getUsedBytes();
+    }
+
+    /**
+     * Get the number of bytes held in temp files for this archive.
+     */
+    synchronized long getOwnTempBytes() {
+        long bytes = 0;
+        if (mountArea != null)
+            bytes += mountArea.getBytes();
+        if (sharedArchive != null)
+            bytes += sharedArchive.getLength();
+        if (streamArea != null)
+            bytes += streamArea.getBytes();
+        return bytes;
+    }
+
+    /**
+     * Get the canonical adaptor for a file that is reached by navigation from this owner.
+     * Repeated traversals return the same instances until this owner is closed.
+     */
+    private VirtualFileAdaptor30 intern(org.jboss.vfs.VirtualFile file) {
+        if (file.equals(vfsFile))
+            return this;
+
+        ConcurrentMap<org.jboss.vfs.VirtualFile, VirtualFileAdaptor30> cache = navigationCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = navigationCache;
+                if (cache == null) {
+                    cache = new ConcurrentHashMap<org.jboss.vfs.VirtualFile, VirtualFileAdaptor30>();
+                    navigationCache = cache;
+                }
+            }
+        }
+
+        VirtualFileAdaptor30 result = cache.get(file);
+        if (result == null) {
+            VirtualFileAdaptor30 newFile = new VirtualFileAdaptor30(file, this);
+            result = cache.putIfAbsent(file, newFile);
+            if (result == null)
+                result = newFile;
+        }
+        return result;
+    }
+
+    /**
+     * Get the entry index of the mounted archive, which is built on first access.
+     *
+     * A watched directory root is indexed as well. The pending change events are applied to it first, so that
+     * the index reflects every change that the watch service has delivered.
+     *
+     * @return the index or null if this file is not a mounted archive or a watched directory
+     */
+    private VFSEntryIndex getEntryIndex() throws IOException {
+        VFSDirectoryWatch watch = directoryWatch;
+        if (watch != null)
+            checkForChanges(watch);
+
+        VFSEntryIndex index = entryIndex;
+        if (index != null)
+            return index;
+
+        ensureMounted();
+        if (mountState != MOUNTED && directoryWatch == null)
+            return null;
+
+        synchronized (this) {
+            if (entryIndex == null && sharedArchive != null)
+                entryIndex = sharedArchive.getEntryIndex(vfsFile.getPathName());
+            if (entryIndex == null && mount != null) {
+                ZipDirectory directory = getZipDirectory();
+                entryIndex = directory != null ? VFSEntryIndex.create(vfsFile.getPathName(), directory) : VFSEntryIndex.create(vfsFile);
+            } else if (entryIndex == null && directoryWatch != null) {
+                entryIndex = VFSEntryIndex.create(vfsFile);
+            }
+            return entryIndex;
         }
     }
 
     @Override
     public boolean equals(Object obj) {
-        return vfsFile.equals(obj);
+        if (obj == this)
+            return true;
+        if (!(obj instanceof VirtualFileAdaptor30))
+            return false;
+        VirtualFileAdaptor30 other = (VirtualFileAdaptor30) obj;
+        return vfsFile.equals(other.vfsFile);
     }
 
     @Override
@@ -336,4 +1103,55 @@ class VirtualFileAdaptor30 implements VirtualFile {
     public String toString() {
         return vfsFile.toString();
     }
+
+    /**
+     * The mounts, temp files and watches that are held by an adaptor and the adaptors that were reached by
+     * navigation from it. The registry releases them if the adaptor is dropped without being closed.
+     *
+     * Each resource is closed once, either by the adaptor that holds it or by {@link #releaseAll()}.
+     */
+    static final class Resources {
+
+        private final Set<Closeable> held = new LinkedHashSet<Closeable>();
+
+        synchronized <T extends Closeable> T hold(T resource) {
+            held.add(resource);
+            return resource;
+        }
+
+        void release(Closeable resource) {
+            boolean remove;
+            synchronized (this) {
+                remove = held.remove(resource);
+            }
+            if (remove)
+                VFSUtils.safeClose(resource);
+        }
+
+        void releaseAll() {
+            List<Closeable> resources;
+            synchronized (this) {
+                resources = new ArrayList<Closeable>(held);
+                held.clear();
+            }
+            for (Closeable resource : resources)
+                VFSUtils.safeClose(resource);
+        }
+    }
+
+    // A live mount, which is counted until it is closed
+    private static final class MountHandle implements Closeable {
+
+        private final Closeable mount;
+
+        MountHandle(Closeable mount) {
+            this.mount = mount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            liveMounts.decrementAndGet();
+            mount.close();
+        }
+    }
 }
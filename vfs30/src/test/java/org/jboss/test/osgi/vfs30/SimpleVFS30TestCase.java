@@ -43,25 +43,70 @@
 package org.jboss.test.osgi.vfs30;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.jboss.osgi.vfs.AbstractVFS;
+import org.jboss.osgi.vfs.AsyncVirtualFile;
+import org.jboss.osgi.vfs.ExtendedVirtualFile;
+import org.jboss.osgi.vfs.VFSAdaptor;
+import org.jboss.osgi.vfs.VFSCallback;
+import org.jboss.osgi.vfs.VFSMetrics;
+import org.jboss.osgi.vfs.VFSMetrics.Operation;
+import org.jboss.osgi.vfs.VFSMetricsCollector;
 import org.jboss.osgi.vfs.VirtualFile;
+import org.jboss.osgi.vfs30.VFSAdaptor30;
+import org.jboss.osgi.vfs30.VFSTempStorage;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.Asset;
 import org.jboss.shrinkwrap.api.exporter.ZipExporter;
@@ -116,6 +161,10 @@ public class SimpleVFS30TestCase {
         archive.addAsResource(getAsset("file4"), "sub/file4.txt");
         archive.addAsResource(getAsset("file5"), "sub/sub/file5.txt");
         archive.addAsResource(getAsset("file6"), "sub/sub1/file6.txt");
+        archive.addAsResource(getAsset("foo.bar"), "foo.bar");
+        archive.addAsResource(getAsset("fooxbar"), "fooxbar");
+        archive.addAsResource(getAsset("a+b"), "a+b.txt");
+        archive.addAsResource(getAsset("aab"), "aab.txt");
         file2 = toFile(archive);
     }
 
@@ -207,6 +256,347 @@ public class SimpleVFS30TestCase {
         }
     }
 
+    @Test
+    public void testConcurrentAdapt() throws Exception {
+        final org.jboss.vfs.VirtualFile vfsFile = org.jboss.vfs.VFS.getChild(file2.toURI());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<VirtualFile>> futures = new ArrayList<Future<VirtualFile>>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(new Callable<VirtualFile>() {
+                    public VirtualFile call() throws Exception {
+                        return AbstractVFS.adapt(org.jboss.vfs.VFS.getChild(vfsFile.getPathName()));
+                    }
+                }));
+            }
+            VirtualFile virtualFile = futures.get(0).get();
+            try {
+                for (Future<VirtualFile> future : futures)
+                    assertSame(virtualFile, future.get());
+            } finally {
+                virtualFile.close();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentMount() throws Exception {
+        System.setProperty(VirtualFile.PROPERTY_VFS_LEAK_DEBUGGING, "true");
+        final VirtualFile virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            List<Future<VirtualFile>> futures = new ArrayList<Future<VirtualFile>>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(new Callable<VirtualFile>() {
+                    public VirtualFile call() throws Exception {
+                        latch.await();
+                        return virtualFile.getChild("sub/file3.txt");
+                    }
+                }));
+            }
+            latch.countDown();
+            VirtualFile child = futures.get(0).get();
+            for (Future<VirtualFile> future : futures)
+                assertSame(child, future.get());
+
+            int mounts = 0;
+            for (String entry : VFSAdaptor30.getLiveMounts()) {
+                if (entry.equals(virtualFile.getPathName()) || entry.startsWith(virtualFile.getPathName() + "\n"))
+                    mounts++;
+            }
+            assertEquals(1, mounts);
+        } finally {
+            executor.shutdown();
+            virtualFile.close();
+            System.clearProperty(VirtualFile.PROPERTY_VFS_LEAK_DEBUGGING);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        VFSMetricsCollector collector = VFSMetrics.registerMBean();
+        try {
+            collector.reset();
+            VirtualFile virtualFile = AbstractVFS.toVirtualFile("foo-metrics", new FileInputStream(file2));
+            try {
+                assertNotNull("Child not null", virtualFile.getChild("sub/file3.txt"));
+                assertNotNull("Entries not null", virtualFile.findEntries("/", "*.txt", true));
+                virtualFile.getStreamURL();
+                assertEquals(1, collector.getCount(Operation.MOUNT.name()));
+                assertEquals(1, collector.getCount(Operation.GET_CHILD.name()));
+                assertEquals(1, collector.getCount(Operation.FIND_ENTRIES.name()));
+                assertEquals(1, collector.getCount(Operation.GET_STREAM_URL.name()));
+                assertTrue("Live mounts", VFSMetrics.getLiveMounts() > 0);
+                assertTrue("Temp bytes", VFSMetrics.getTempBytes() >= file2.length());
+
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName oname = new ObjectName(VFSMetrics.OBJECT_NAME);
+                assertEquals(VFSMetrics.getLiveMounts(), server.getAttribute(oname, "LiveMounts"));
+            } finally {
+                virtualFile.close();
+            }
+        } finally {
+            VFSMetrics.unregisterMBean();
+        }
+    }
+
+    @Test
+    public void testTempStorage() throws Exception {
+        File location = new File("target/example-temp");
+        File hotLocation = new File("target/example-temp-hot");
+        VFSTempStorage storage = new VFSTempStorage(location, hotLocation, 2 * file.length());
+        VFSAdaptor30.setTempStorage(storage);
+        try {
+            assertSame(storage, VFSAdaptor30.getTempStorage());
+            VirtualFile virtualFile = AbstractVFS.toVirtualFile("foo-temp", new FileInputStream(file));
+            VirtualFile other = AbstractVFS.toVirtualFile("foo-temp2", new FileInputStream(file));
+            try {
+                assertEquals(file.length(), VFSAdaptor30.getTempBytes(virtualFile));
+                assertEquals(2 * file.length(), storage.getUsedBytes());
+                assertTrue("Mount copy in hot location", new File(virtualFile.getStreamURL().toURI()).getPath().startsWith(storage.getHotLocation().getPath()));
+                try {
+                    AbstractVFS.toVirtualFile("foo-temp3", new FileInputStream(file));
+                    fail("IOException expected");
+                } catch (IOException ex) {
+                    // expected
+                }
+                assertEquals(2 * file.length(), storage.getUsedBytes());
+            } finally {
+                virtualFile.close();
+            }
+
+            // Temp files are reclaimed on close
+            assertEquals(0, VFSAdaptor30.getTempBytes(virtualFile));
+            assertEquals(file.length(), storage.getUsedBytes());
+            other.close();
+            assertEquals(0, storage.getUsedBytes());
+            assertEquals(Arrays.asList(".lock"), Arrays.asList(storage.getHotLocation().list()));
+
+            // The directory of a process that ended without cleaning up
+            File orphan = new File(storage.getLocation().getParentFile(), "osgitmp-orphan");
+            createFile(orphan, ".lock", "");
+            createFile(orphan, "foo/foo.jar", "foo");
+            assertEquals(1, storage.compact());
+            assertFalse("Orphan removed", orphan.exists());
+            assertTrue("Own directory kept", storage.getLocation().exists());
+        } finally {
+            VFSAdaptor30.setTempStorage(null);
+            storage.close();
+        }
+        assertFalse("Location removed", storage.getLocation().exists());
+        assertFalse("Hot location removed", storage.getHotLocation().exists());
+    }
+
+    @Test
+    public void testTempStorageDeduplication() throws Exception {
+        VFSTempStorage storage = new VFSTempStorage(new File("target/example-temp"), null, 0, true);
+        VFSAdaptor30.setTempStorage(storage);
+        try {
+            VirtualFile virtualFile = AbstractVFS.toVirtualFile("foo-shared1", new FileInputStream(file));
+            VirtualFile other = AbstractVFS.toVirtualFile("foo-shared2", new FileInputStream(file));
+            VirtualFile different = AbstractVFS.toVirtualFile("foo-shared3", new FileInputStream(file2));
+            try {
+                assertEquals(2, storage.getSharedArchiveCount());
+                assertEquals(file.length() + file2.length(), storage.getUsedBytes());
+                File sharedFile = new File(virtualFile.getStreamURL().toURI());
+                assertEquals(sharedFile, new File(other.getStreamURL().toURI()));
+
+                // Each handle has its own mount on the shared file
+                assertNotNull(other.getChild(JarFile.MANIFEST_NAME));
+                assertEquals(new HashSet<String>(Collections.list(virtualFile.getEntryPaths("/"))), new HashSet<String>(Collections.list(other.getEntryPaths("/"))));
+                assertTrue(other.getChild(JarFile.MANIFEST_NAME).toURL().toExternalForm().contains("foo-shared2"));
+
+                virtualFile.close();
+                assertTrue("Shared file kept", sharedFile.exists());
+                assertNotNull(other.getChild(JarFile.MANIFEST_NAME));
+                other.close();
+                assertFalse("Shared file deleted", sharedFile.exists());
+                assertEquals(1, storage.getSharedArchiveCount());
+                assertEquals(file2.length(), storage.getUsedBytes());
+            } finally {
+                virtualFile.close();
+                other.close();
+                different.close();
+            }
+            assertEquals(0, storage.getSharedArchiveCount());
+            assertEquals(0, storage.getUsedBytes());
+        } finally {
+            VFSAdaptor30.setTempStorage(null);
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testAdaptorDiscovery() throws Exception {
+        Iterator<VFSAdaptor> services = ServiceLoader.load(VFSAdaptor.class).iterator();
+        assertTrue("Adaptor service found", services.hasNext());
+        assertEquals(VFSAdaptor30.class, services.next().getClass());
+
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            assertEquals("org.jboss.osgi.vfs30.VirtualFileAdaptor30", virtualFile.getClass().getName());
+        } finally {
+            virtualFile.close();
+        }
+        try {
+            AbstractVFS.setVFSAdaptor(new VFSAdaptor30());
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testToVirtualFiles() throws Exception {
+        List<URL> urls = Arrays.asList(file2.toURI().toURL(), file.toURI().toURL());
+        List<VirtualFile> virtualFiles = AbstractVFS.toVirtualFiles(urls);
+        try {
+            assertEquals(2, virtualFiles.size());
+            assertEquals(file2.getName(), virtualFiles.get(0).getName());
+            assertEquals(file.getName(), virtualFiles.get(1).getName());
+            assertNotNull("Manifest not null", virtualFiles.get(1).getChild(JarFile.MANIFEST_NAME));
+        } finally {
+            for (VirtualFile virtualFile : virtualFiles)
+                virtualFile.close();
+        }
+
+        // A failed batch does not close a virtual file that is used by another caller
+        VirtualFile shared = AbstractVFS.toVirtualFile(file.toURI());
+        try {
+            assertNotNull("Manifest not null", shared.getChild(JarFile.MANIFEST_NAME));
+            urls = Arrays.asList(file.toURI().toURL(), new File("target/nosuchfile.jar").toURI().toURL());
+            try {
+                AbstractVFS.toVirtualFiles(urls);
+                fail("IOException expected");
+            } catch (IOException ex) {
+                // expected
+            }
+            assertTrue("Still mounted", ((org.jboss.vfs.VirtualFile) AbstractVFS.adapt(shared)).isDirectory());
+        } finally {
+            shared.close();
+        }
+    }
+
+    @Test
+    public void testAsyncPipeline() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        final VFSCallback<Enumeration<URL>> scanned = new VFSCallback<Enumeration<URL>>() {
+            public void completed(Enumeration<URL> result) {
+                while (result.hasMoreElements())
+                    results.add(result.nextElement().getPath());
+                latch.countDown();
+            }
+
+            public void failed(Throwable cause) {
+                results.add(cause);
+                latch.countDown();
+            }
+        };
+        Future<AsyncVirtualFile> mounted = AsyncVirtualFile.toVirtualFile(file.toURI().toURL(), new VFSCallback<AsyncVirtualFile>() {
+            public void completed(final AsyncVirtualFile async) {
+                async.getManifest(new VFSCallback<Manifest>() {
+                    public void completed(Manifest manifest) {
+                        results.add(manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME));
+                        async.findEntries("/", "*.class", true, scanned);
+                    }
+
+                    public void failed(Throwable cause) {
+                        scanned.failed(cause);
+                    }
+                });
+            }
+
+            public void failed(Throwable cause) {
+                scanned.failed(cause);
+            }
+        });
+        assertTrue("Pipeline completed", latch.await(10, TimeUnit.SECONDS));
+        VirtualFile virtualFile = mounted.get().getVirtualFile();
+        try {
+            assertEquals(2, results.size());
+            assertEquals("example-simple", results.get(0));
+            assertTrue("SimpleActivator in " + results, ((String) results.get(1)).endsWith("SimpleActivator.class"));
+        } finally {
+            virtualFile.close();
+        }
+
+        // Failures reach both the future and the callback
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch failed = new CountDownLatch(1);
+        Future<AsyncVirtualFile> missing = AsyncVirtualFile.toVirtualFile(new File("target/nosuchfile.jar").toURI().toURL(), new VFSCallback<AsyncVirtualFile>() {
+            public void completed(AsyncVirtualFile result) {
+            }
+
+            public void failed(Throwable cause) {
+                failures.add(cause);
+                failed.countDown();
+            }
+        });
+        try {
+            missing.get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+        assertTrue("Callback notified", failed.await(10, TimeUnit.SECONDS));
+        assertEquals(1, failures.size());
+
+        // A companion with its own executor
+        final List<String> threads = new ArrayList<String>();
+        virtualFile = AbstractVFS.toVirtualFile(file.toURI());
+        try {
+            AsyncVirtualFile async = AsyncVirtualFile.of(virtualFile, new Executor() {
+                public void execute(Runnable command) {
+                    threads.add(Thread.currentThread().getName());
+                    command.run();
+                }
+            });
+            assertNotNull(async.getChild(JarFile.MANIFEST_NAME, null).get());
+            assertEquals(Collections.singletonList(Thread.currentThread().getName()), threads);
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testAsyncCancelDuringCallback() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final List<Future<VirtualFile>> futures = new ArrayList<Future<VirtualFile>>();
+        final List<Object> outcomes = new ArrayList<Object>();
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
+        try {
+            AsyncVirtualFile async = AsyncVirtualFile.of(virtualFile, new Executor() {
+                public void execute(Runnable command) {
+                    tasks.add(command);
+                }
+            });
+            futures.add(async.getChild(JarFile.MANIFEST_NAME, new VFSCallback<VirtualFile>() {
+                public void completed(VirtualFile result) {
+                    outcomes.add(result);
+                    outcomes.add(futures.get(0).cancel(false));
+                }
+
+                public void failed(Throwable cause) {
+                    outcomes.add(cause);
+                }
+            }));
+            tasks.get(0).run();
+
+            // The future is done when the callback runs, so the cancellation has no effect
+            assertEquals(2, outcomes.size());
+            assertTrue("Completed " + outcomes, outcomes.get(0) instanceof VirtualFile);
+            assertEquals(Boolean.FALSE, outcomes.get(1));
+            assertFalse("Not cancelled", futures.get(0).isCancelled());
+            assertSame(outcomes.get(0), futures.get(0).get());
+        } finally {
+            virtualFile.close();
+        }
+    }
+
     @Test
     public void testManifestAccess() throws Exception {
         VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
@@ -224,6 +614,57 @@ public class SimpleVFS30TestCase {
         }
     }
 
+    @Test
+    public void testManifestCache() throws Exception {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
+        Manifest manifest;
+        try {
+            manifest = org.jboss.osgi.vfs.VFSUtils.getManifest(virtualFile);
+            assertEquals("example-simple", manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME));
+            assertSame(manifest, org.jboss.osgi.vfs.VFSUtils.getManifest(virtualFile));
+            try {
+                manifest.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, "other");
+                fail("UnsupportedOperationException expected");
+            } catch (UnsupportedOperationException ex) {
+                // expected
+            }
+            Manifest copy = (Manifest) manifest.clone();
+            copy.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, "other");
+            assertEquals("example-simple", manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME));
+        } finally {
+            virtualFile.close();
+        }
+
+        // An edit to the manifest of an exploded directory is seen without watching the directory
+        File dir = new File("target/example-manifest-cache");
+        VFSUtils.recursiveDelete(dir);
+        createFile(dir, JarFile.MANIFEST_NAME, "Manifest-Version: 1.0\nBundle-SymbolicName: example-exploded\n\nName: foo\nFoo: bar\n");
+        VirtualFile exploded = AbstractVFS.toVirtualFile(dir.toURI());
+        try {
+            Manifest cached = org.jboss.osgi.vfs.VFSUtils.getManifest(exploded);
+            assertEquals("example-exploded", cached.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME));
+            assertSame(cached, org.jboss.osgi.vfs.VFSUtils.getManifest(exploded));
+
+            Manifest copy = (Manifest) cached.clone();
+            copy.getAttributes("foo").putValue("Foo", "other");
+            assertEquals("bar", cached.getAttributes("foo").getValue("Foo"));
+
+            createFile(dir, JarFile.MANIFEST_NAME, "Manifest-Version: 1.0\nBundle-SymbolicName: example-exploded-changed\n");
+            assertEquals("example-exploded-changed", org.jboss.osgi.vfs.VFSUtils.getManifest(exploded).getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME));
+        } finally {
+            exploded.close();
+        }
+
+        virtualFile = AbstractVFS.toVirtualFile(file.toURI());
+        try {
+            Manifest other = org.jboss.osgi.vfs.VFSUtils.getManifest(virtualFile);
+            assertNotSame(manifest, other);
+            assertEquals(manifest, other);
+        } finally {
+            virtualFile.close();
+        }
+    }
+
     @Test
     public void testManifestURLAccess() throws Exception {
         VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
@@ -262,6 +703,428 @@ public class SimpleVFS30TestCase {
         }
     }
 
+    @Test
+    public void testGetEntryPaths2() throws Exception {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            Set<String> actual = new HashSet<String>();
+            Enumeration<String> en = virtualFile.getEntryPaths("sub");
+            while (en.hasMoreElements())
+                actual.add(en.nextElement());
+
+            Set<String> expected = new HashSet<String>();
+            expected.add("sub/file3.txt");
+            expected.add("sub/file4.txt");
+            expected.add("sub/sub/");
+            expected.add("sub/sub1/");
+            assertEquals(expected, actual);
+
+            assertNull("No entry paths", virtualFile.getEntryPaths("nosuchdir"));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testGetEntryPathsFromIndex() throws Exception {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            // The paths are shared with the index of the archive
+            Enumeration<String> en = virtualFile.getEntryPaths("sub");
+            Enumeration<String> other = virtualFile.getEntryPaths("sub");
+            while (en.hasMoreElements())
+                assertSame(en.nextElement(), other.nextElement());
+            assertFalse(other.hasMoreElements());
+
+            // A child answers relative to itself from the index of its archive
+            VirtualFile child = virtualFile.getChild("sub");
+            Set<String> actual = new HashSet<String>(Collections.list(child.getEntryPaths("sub")));
+            assertEquals(new HashSet<String>(Arrays.asList("sub/file5.txt")), actual);
+            actual = new HashSet<String>(Collections.list(child.getEntryPaths("/")));
+            assertEquals(new HashSet<String>(Arrays.asList("file3.txt", "file4.txt", "sub/", "sub1/")), actual);
+            assertNull("No entry paths", child.getEntryPaths("nosuchdir"));
+        } finally {
+            virtualFile.close();
+        }
+
+        // A watched directory root applies added and removed entries to its index
+        File dir = new File("target/example-entry-paths");
+        VFSUtils.recursiveDelete(dir);
+        createFile(dir, "file1.txt", "file1");
+        createFile(dir, "sub/file3.txt", "file3");
+        virtualFile = AbstractVFS.toVirtualFile(dir.toURI());
+        try {
+            VFSAdaptor30.checkForChanges(virtualFile);
+            Set<String> actual = new HashSet<String>(Collections.list(virtualFile.getEntryPaths("/")));
+            assertEquals(new HashSet<String>(Arrays.asList("file1.txt", "sub/")), actual);
+            String indexed = Collections.list(virtualFile.getEntryPaths("sub")).get(0);
+
+            final Set<String> added = Collections.synchronizedSet(new HashSet<String>());
+            VFSAdaptor30.addChangeListener(virtualFile, new VFSAdaptor30.ChangeListener() {
+                public void filesChanged(VirtualFile root, Set<String> addedPaths, Set<String> modifiedPaths, Set<String> removedPaths) {
+                    added.addAll(addedPaths);
+                }
+            });
+            createFile(dir, "sub/sub/file5.txt", "file5");
+            awaitChanges(virtualFile, added, "sub/sub/file5.txt");
+            actual = new HashSet<String>(Collections.list(virtualFile.getEntryPaths("sub")));
+            assertEquals(new HashSet<String>(Arrays.asList("sub/file3.txt", "sub/sub/")), actual);
+            actual = new HashSet<String>(Collections.list(virtualFile.getChild("sub").getEntryPaths("sub")));
+            assertEquals(new HashSet<String>(Arrays.asList("sub/file5.txt")), actual);
+
+            // The index was updated, not walked again
+            assertSame(indexed, Collections.list(virtualFile.getEntryPaths("sub")).get(0));
+
+            // A removed directory takes its entries out of the index
+            VFSUtils.recursiveDelete(new File(dir, "sub/sub"));
+            Set<String> expected = new HashSet<String>(Arrays.asList("sub/file3.txt"));
+            long deadline = System.currentTimeMillis() + 10000;
+            VFSAdaptor30.checkForChanges(virtualFile);
+            actual = new HashSet<String>(Collections.list(virtualFile.getEntryPaths("sub")));
+            while (actual.equals(expected) == false && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+                VFSAdaptor30.checkForChanges(virtualFile);
+                actual = new HashSet<String>(Collections.list(virtualFile.getEntryPaths("sub")));
+            }
+            assertEquals(expected, actual);
+            assertNull("No entry paths", virtualFile.getEntryPaths("sub/sub"));
+            assertSame(indexed, Collections.list(virtualFile.getEntryPaths("sub")).get(0));
+
+            // Lookups see a new file without an explicit check for changes
+            createFile(dir, "file2.txt", "file2");
+            assertNotNull("Live child", virtualFile.getChild("file2.txt"));
+            deadline = System.currentTimeMillis() + 10000;
+            actual = new HashSet<String>(Collections.list(virtualFile.getEntryPaths("/")));
+            while (actual.contains("file2.txt") == false && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+                actual = new HashSet<String>(Collections.list(virtualFile.getEntryPaths("/")));
+            }
+            assertEquals(new HashSet<String>(Arrays.asList("file1.txt", "file2.txt", "sub/")), actual);
+            assertTrue("file2.txt reported in " + added, added.contains("file2.txt"));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testGetChild() throws Exception {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            VirtualFile child = virtualFile.getChild("/sub/sub1/");
+            assertNotNull("Child not null", child);
+            assertEquals("sub1", child.getName());
+            assertTrue("Child is directory", child.isDirectory());
+
+            child = virtualFile.getChild("sub/file3.txt");
+            assertNotNull("Child not null", child);
+            assertTrue("Child is file", child.isFile());
+
+            assertNull("Child is null", virtualFile.getChild("sub/file7.txt"));
+            assertNull("Child is null", virtualFile.getChild("sub/sub1/file6.txt/foo"));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testNestedArchive() throws Exception {
+        // A bundle with a nested jar on its Bundle-ClassPath
+        JavaArchive nested = ShrinkWrap.create(JavaArchive.class, "nested.jar");
+        nested.addAsResource(getAsset("x"), "x.txt");
+        nested.addAsResource(getAsset("y"), "sub/y.txt");
+        JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "example-nested.jar");
+        archive.add(nested, "lib", ZipExporter.class);
+        archive.addAsResource(getAsset("z"), "z.txt");
+        File nestedFile = toFile(archive);
+
+        long liveMounts = VFSMetrics.getLiveMounts();
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(nestedFile.toURI());
+        try {
+            VirtualFile child = virtualFile.getChild("lib/nested.jar");
+            assertNotNull("Nested archive", child);
+            assertEquals("x", new String(readBytes(child.getChild("x.txt").openStream())));
+            assertTrue("Nested archive is a directory", child.isDirectory());
+            assertNotNull("Nested directory", child.getChild("sub"));
+            assertTrue("Nested file", child.getChild("sub/y.txt").isFile());
+            assertNull("No such child", child.getChild("z.txt"));
+
+            Set<String> actual = new HashSet<String>();
+            Enumeration<URL> en = child.findEntries("/", "*.txt", true);
+            while (en.hasMoreElements()) {
+                String url = en.nextElement().toExternalForm();
+                actual.add(url.substring(url.lastIndexOf("nested.jar/") + 11));
+            }
+            assertEquals(new HashSet<String>(Arrays.asList("x.txt", "sub/y.txt")), actual);
+
+            actual.clear();
+            Enumeration<String> paths = child.getEntryPaths("/");
+            while (paths.hasMoreElements())
+                actual.add(paths.nextElement());
+            assertEquals(new HashSet<String>(Arrays.asList("x.txt", "sub/")), actual);
+
+            assertEquals(Arrays.asList("sub", "sub/y.txt", "x.txt"), visitPaths(child, null, null));
+            assertEquals("Outer and nested mount", liveMounts + 2, VFSMetrics.getLiveMounts());
+        } finally {
+            virtualFile.close();
+        }
+        assertEquals("Nested mount closed", liveMounts, VFSMetrics.getLiveMounts());
+    }
+
+    @Test
+    public void testVisitor() throws Exception {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
+        try {
+            assertEquals(getRelativePaths(virtualFile, virtualFile.getChildrenRecursively()), visitPaths(virtualFile, null, null));
+
+            // Prune a subtree and filter by path before the virtual files are created
+            final List<String> visited = new ArrayList<String>();
+            org.jboss.osgi.vfs.VFSUtils.visit(virtualFile, new ExtendedVirtualFile.Visitor() {
+                public boolean accept(String path, boolean directory) {
+                    return directory || path.endsWith(".class");
+                }
+
+                public ExtendedVirtualFile.VisitResult visit(VirtualFile file) throws IOException {
+                    visited.add(file.getName());
+                    return "META-INF".equals(file.getName()) ? ExtendedVirtualFile.VisitResult.SKIP_SUBTREE : ExtendedVirtualFile.VisitResult.CONTINUE;
+                }
+            });
+            assertTrue("META-INF in " + visited, visited.contains("META-INF"));
+            assertFalse("MANIFEST.MF in " + visited, visited.contains("MANIFEST.MF"));
+            assertTrue("SimpleActivator.class in " + visited, visited.contains("SimpleActivator.class"));
+
+            // Terminate at the first match, which is the interned child
+            final String activatorPath = SimpleActivator.class.getName().replace('.', '/') + ".class";
+            final List<VirtualFile> found = new ArrayList<VirtualFile>();
+            org.jboss.osgi.vfs.VFSUtils.visit(virtualFile, new ExtendedVirtualFile.Visitor() {
+                public boolean accept(String path, boolean directory) {
+                    return path.equals(activatorPath);
+                }
+
+                public ExtendedVirtualFile.VisitResult visit(VirtualFile file) {
+                    found.add(file);
+                    return ExtendedVirtualFile.VisitResult.TERMINATE;
+                }
+            });
+            assertEquals(1, found.size());
+            assertSame(virtualFile.getChild(activatorPath), found.get(0));
+
+            VirtualFile child = virtualFile.getChild("org/jboss");
+            assertEquals(getRelativePaths(child, child.getChildrenRecursively()), visitPaths(child, null, null));
+        } finally {
+            virtualFile.close();
+        }
+
+        File dir = new File("target/example-visit");
+        createFile(dir, "file1.txt", "file1");
+        createFile(dir, "sub/file3.txt", "file3");
+        createFile(dir, "sub/sub/file5.txt", "file5");
+        virtualFile = AbstractVFS.toVirtualFile(dir.toURI());
+        try {
+            assertEquals(Arrays.asList("file1.txt", "sub", "sub/file3.txt", "sub/sub", "sub/sub/file5.txt"), visitPaths(virtualFile, null, null));
+            List<String> paths = visitPaths(virtualFile, "sub", ExtendedVirtualFile.VisitResult.SKIP_SUBTREE);
+            assertEquals(new HashSet<String>(Arrays.asList("file1.txt", "sub")), new HashSet<String>(paths));
+            paths = visitPaths(virtualFile, "sub", ExtendedVirtualFile.VisitResult.TERMINATE);
+            assertEquals("sub", paths.get(paths.size() - 1));
+            assertTrue("Terminated at sub " + paths, paths.size() <= 2);
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    // Visit all entries, with the given result for the given path. A complete walk is sorted by name
+    private static List<String> visitPaths(final VirtualFile root, final String stopPath, final ExtendedVirtualFile.VisitResult stopResult) throws IOException {
+        final List<String> result = new ArrayList<String>();
+        org.jboss.osgi.vfs.VFSUtils.visit(root, new ExtendedVirtualFile.Visitor() {
+            public boolean accept(String path, boolean directory) {
+                return true;
+            }
+
+            public ExtendedVirtualFile.VisitResult visit(VirtualFile file) throws IOException {
+                String path = file.getPathName().substring(root.getPathName().length() + 1);
+                result.add(path);
+                return path.equals(stopPath) ? stopResult : ExtendedVirtualFile.VisitResult.CONTINUE;
+            }
+        });
+        if (stopPath == null)
+            Collections.sort(result);
+        return result;
+    }
+
+    private static List<String> getRelativePaths(VirtualFile root, List<VirtualFile> files) {
+        List<String> result = new ArrayList<String>();
+        for (VirtualFile file : files)
+            result.add(file.getPathName().substring(root.getPathName().length() + 1));
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test
+    public void testPlainVirtualFile() throws Exception {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            VirtualFile plain = toPlainVirtualFile(virtualFile);
+            assertFalse(plain instanceof ExtendedVirtualFile);
+
+            List<String> paths = Arrays.asList("sub/file3.txt", "nosuchfile", "sub");
+            Map<String, byte[]> expected = org.jboss.osgi.vfs.VFSUtils.readEntries(virtualFile, paths);
+            Map<String, byte[]> actual = org.jboss.osgi.vfs.VFSUtils.readEntries(plain, paths);
+            assertEquals(expected.keySet(), actual.keySet());
+            assertEquals("file3", new String(actual.get("sub/file3.txt")));
+
+            assertEquals(visitPaths(virtualFile, null, null), visitPaths(plain, null, null));
+            assertEquals(0, org.jboss.osgi.vfs.VFSUtils.getLastModified(plain));
+            assertEquals(0, org.jboss.osgi.vfs.VFSUtils.getSize(plain));
+            assertEquals("file3".length(), org.jboss.osgi.vfs.VFSUtils.getSize(toPlainVirtualFile(virtualFile.getChild("sub/file3.txt"))));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    // A file of another adaptor that only implements the plain interface
+    private static VirtualFile toPlainVirtualFile(final VirtualFile file) {
+        return (VirtualFile) Proxy.newProxyInstance(VirtualFile.class.getClassLoader(), new Class<?>[] { VirtualFile.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                try {
+                    return method.invoke(file, args);
+                } catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testInternedNavigation() throws Exception {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            VirtualFile child = virtualFile.getChild("sub/sub1");
+            assertSame(child, virtualFile.getChild("sub/sub1"));
+            assertSame(child.getParent(), virtualFile.getChild("sub"));
+            assertSame(virtualFile, child.getParent().getParent());
+            assertTrue("Child found", virtualFile.getChildrenRecursively().contains(child));
+
+            VirtualFile sub = virtualFile.getChild("sub");
+            for (VirtualFile aux : sub.getChildren())
+                assertSame(aux, sub.getChild(aux.getName()));
+
+            VirtualFile other = AbstractVFS.adapt(AbstractVFS.adapt(child));
+            assertEquals(child, other);
+            assertEquals(child.hashCode(), other.hashCode());
+            assertFalse("Not equal to the jboss-vfs file", child.equals(AbstractVFS.adapt(child)));
+            other.close();
+            assertSame(virtualFile, AbstractVFS.toVirtualFile(file2.toURI()));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testCentralDirectoryLookup() throws Exception {
+        // An archive without directory entries, so all directories are synthetic
+        File zipFile = new File("target/example-no-dirs.zip");
+        ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            for (String name : Arrays.asList("a/b/c.txt", "a/d.txt", "\u00e4/\u00f6.txt", "e.txt")) {
+                zipOut.putNextEntry(new ZipEntry(name));
+                zipOut.write(name.getBytes("UTF-8"));
+                zipOut.closeEntry();
+            }
+        } finally {
+            zipOut.close();
+        }
+
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(zipFile.toURI());
+        try {
+            VirtualFile dir = virtualFile.getChild("a/b/");
+            assertNotNull("Synthetic directory", dir);
+            assertTrue("Is directory", dir.isDirectory());
+            assertFalse("Not a file", dir.isFile());
+            assertEquals("a/b/c.txt", new String(readBytes(dir.getChild("c.txt").openStream()), "UTF-8"));
+            assertTrue("Is file", dir.getChild("c.txt").isFile());
+            assertNull("No such child", dir.getChild("d.txt"));
+            assertNull("No child of a file", virtualFile.getChild("e.txt/f"));
+            assertNotNull("Non-ascii name", virtualFile.getChild("\u00e4/\u00f6.txt"));
+            assertTrue("Non-ascii file", virtualFile.getChild("\u00e4").getChild("\u00f6.txt").isFile());
+
+            Set<String> names = new HashSet<String>();
+            for (VirtualFile child : virtualFile.getChild("a").getChildren())
+                names.add(child.getName());
+            assertEquals(new HashSet<String>(Arrays.asList("b", "d.txt")), names);
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testLiveMounts() throws Exception {
+        System.setProperty(VirtualFile.PROPERTY_VFS_LEAK_DEBUGGING, "true");
+        System.setProperty(VFSAdaptor30.PROPERTY_VFS_LEAK_DEBUGGING_SAMPLE_RATE, "1");
+        try {
+            VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
+            String pathName = virtualFile.getPathName();
+            try {
+                assertFalse("Not mounted", hasLiveMount(pathName));
+                assertNotNull("Child not null", virtualFile.getChild("META-INF/MANIFEST.MF"));
+                assertTrue("Mounted", hasLiveMount(pathName));
+                assertTrue("Creation stack", getLiveMount(pathName).contains("\n\tat "));
+            } finally {
+                virtualFile.close();
+            }
+            assertFalse("Mount closed", hasLiveMount(pathName));
+        } finally {
+            System.clearProperty(VirtualFile.PROPERTY_VFS_LEAK_DEBUGGING);
+            System.clearProperty(VFSAdaptor30.PROPERTY_VFS_LEAK_DEBUGGING_SAMPLE_RATE);
+        }
+
+        // Mounts are not tracked by default
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
+        try {
+            assertNotNull("Child not null", virtualFile.getChild("META-INF/MANIFEST.MF"));
+            assertFalse("Not tracked", hasLiveMount(virtualFile.getPathName()));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testLeakedMount() throws Exception {
+        JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "example-leak.jar");
+        archive.addAsResource(getAsset("file1"), "file1.txt");
+        File leakFile = toFile(archive);
+
+        System.setProperty(VirtualFile.PROPERTY_VFS_LEAK_DEBUGGING, "true");
+        try {
+            // A registered file that is dropped without being closed is reported once it is collected
+            String pathName = mountAndDrop(leakFile);
+            assertTrue("Mounted", hasLiveMount(pathName));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (hasLiveMount(pathName) && System.currentTimeMillis() < deadline) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertFalse("Leak reported", hasLiveMount(pathName));
+        } finally {
+            System.clearProperty(VirtualFile.PROPERTY_VFS_LEAK_DEBUGGING);
+        }
+
+        // The leaked mount is released, so that the archive can be mounted and closed again
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(leakFile.toURI());
+        org.jboss.vfs.VirtualFile vfsFile = (org.jboss.vfs.VirtualFile) AbstractVFS.adapt(virtualFile);
+        try {
+            assertNotNull("Child not null", virtualFile.getChild("file1.txt"));
+            assertTrue("Mounted", vfsFile.isDirectory());
+        } finally {
+            virtualFile.close();
+        }
+        assertFalse("Unmounted", vfsFile.isDirectory());
+    }
+
+    private static String mountAndDrop(File archive) throws IOException {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(archive.toURI());
+        assertNotNull("Child not null", virtualFile.getChild("file1.txt"));
+        return virtualFile.getPathName();
+    }
+
     @Test
     public void testFindEntries() throws Exception {
         VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
@@ -307,6 +1170,49 @@ public class SimpleVFS30TestCase {
         }
     }
 
+    @Test
+    public void testFindEntriesPattern() throws Exception {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            Set<String> actual = findEntries(virtualFile, "foo.bar");
+            String rootURL = virtualFile.toURL().toExternalForm();
+            assertEquals(Collections.singleton(rootURL + "foo.bar"), actual);
+            assertEquals(Collections.singleton(rootURL + "a+b.txt"), findEntries(virtualFile, "a+b.txt"));
+            assertEquals(new HashSet<String>(Arrays.asList(rootURL + "foo.bar", rootURL + "fooxbar")), findEntries(virtualFile, "foo*"));
+            assertEquals(new HashSet<String>(Arrays.asList(rootURL + "a+b.txt", rootURL + "aab.txt")), findEntries(virtualFile, "a*b.txt"));
+            assertEquals(new HashSet<String>(Arrays.asList(rootURL + "foo.bar", rootURL + "fooxbar")), findEntries(virtualFile, "*o*b*r"));
+            assertEquals(Collections.singleton(rootURL + "sub/"), findEntries(virtualFile, "sub"));
+            assertEquals(4, findEntries(virtualFile, "*.txt").size());
+            assertEquals(0, findEntries(virtualFile, "f*x.bar").size());
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testFindEntriesExploded() throws Exception {
+        File dir = new File("target/example-exploded");
+        createFile(dir, "file1.txt", "file1");
+        createFile(dir, "sub/file3.txt", "file3");
+        createFile(dir, "sub/sub/file5.txt", "file5");
+        createFile(dir, "sub/sub/file5.class", "file5");
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(dir.toURI());
+        try {
+            Set<String> actual = new HashSet<String>();
+            Enumeration<URL> en = virtualFile.findEntries("/", "*.txt", true);
+            while (en.hasMoreElements())
+                actual.add(en.nextElement().toExternalForm());
+
+            Set<String> expected = new HashSet<String>();
+            expected.add(virtualFile.getChild("file1.txt").toURL().toExternalForm());
+            expected.add(virtualFile.getChild("sub/file3.txt").toURL().toExternalForm());
+            expected.add(virtualFile.getChild("sub/sub/file5.txt").toURL().toExternalForm());
+            assertEquals(expected, actual);
+        } finally {
+            virtualFile.close();
+        }
+    }
+
     @Test
     public void testStreamURLAccess() throws Exception {
         VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
@@ -322,6 +1228,357 @@ public class SimpleVFS30TestCase {
         }
     }
 
+    @Test
+    public void testStreamURLAccessMounted() throws Exception {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
+        try {
+            assertNotNull("Manifest not null", virtualFile.getChild(JarFile.MANIFEST_NAME));
+            URL streamURL = virtualFile.getStreamURL();
+            assertEquals(file.getAbsoluteFile().toURI().toURL(), streamURL);
+            JarInputStream jarIn = new JarInputStream(streamURL.openStream());
+            Manifest manifest = jarIn.getManifest();
+            Attributes attributes = manifest.getMainAttributes();
+            String symbolicName = attributes.getValue(Constants.BUNDLE_SYMBOLICNAME);
+            assertEquals("example-simple", symbolicName);
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testStreamURLAccessExploded() throws Exception {
+        File dir = new File("target/example-exploded-stream");
+        createFile(dir, JarFile.MANIFEST_NAME, "Manifest-Version: 1.0\nBundle-SymbolicName: example-exploded\n");
+        createFile(dir, "sub/file3.txt", "file3");
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(dir.toURI());
+        try {
+            URL streamURL = virtualFile.getStreamURL();
+            JarInputStream jarIn = new JarInputStream(streamURL.openStream());
+            try {
+                Manifest manifest = jarIn.getManifest();
+                assertNotNull("Manifest not null", manifest);
+                assertEquals("example-exploded", manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME));
+
+                Set<String> actual = new HashSet<String>();
+                ZipEntry entry = jarIn.getNextEntry();
+                while (entry != null) {
+                    assertEquals(ZipEntry.STORED, entry.getMethod());
+                    actual.add(entry.getName());
+                    entry = jarIn.getNextEntry();
+                }
+                assertTrue("sub/file3.txt in " + actual, actual.contains("sub/file3.txt"));
+            } finally {
+                jarIn.close();
+            }
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testDirectoryChanges() throws Exception {
+        File dir = new File("target/example-watch");
+        VFSUtils.recursiveDelete(dir);
+        createFile(dir, JarFile.MANIFEST_NAME, "Manifest-Version: 1.0\nBundle-SymbolicName: example-watch\n");
+        createFile(dir, "file1.txt", "file1");
+        createFile(dir, "sub/file3.txt", "file3");
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(dir.toURI());
+        try {
+            final Set<String> added = Collections.synchronizedSet(new HashSet<String>());
+            final Set<String> modified = Collections.synchronizedSet(new HashSet<String>());
+            final Set<String> removed = Collections.synchronizedSet(new HashSet<String>());
+            VFSAdaptor30.addChangeListener(virtualFile, new VFSAdaptor30.ChangeListener() {
+                public void filesChanged(VirtualFile root, Set<String> addedPaths, Set<String> modifiedPaths, Set<String> removedPaths) {
+                    added.addAll(addedPaths);
+                    modified.addAll(modifiedPaths);
+                    removed.addAll(removedPaths);
+                }
+            });
+            assertFalse(VFSAdaptor30.checkForChanges(virtualFile));
+
+            VirtualFile child = virtualFile.getChild("sub/file3.txt");
+            assertEquals("example-watch", org.jboss.osgi.vfs.VFSUtils.getManifest(virtualFile).getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME));
+            URL streamURL = virtualFile.getStreamURL();
+            File streamFile = new File(streamURL.toURI());
+            assertTrue("Stream file exists", streamFile.exists());
+
+            createFile(dir, JarFile.MANIFEST_NAME, "Manifest-Version: 1.0\nBundle-SymbolicName: example-watch-changed\n");
+            createFile(dir, "sub/file4.txt", "file4");
+            assertTrue(new File(dir, "sub/file3.txt").delete());
+
+            awaitChanges(virtualFile, modified, JarFile.MANIFEST_NAME);
+            awaitChanges(virtualFile, added, "sub/file4.txt");
+            awaitChanges(virtualFile, removed, "sub/file3.txt");
+            // A created file may also be reported as modified, if its content arrives with a later event
+            modified.remove("sub/file4.txt");
+            assertEquals(Collections.singleton("sub/file4.txt"), added);
+            assertEquals(Collections.singleton(JarFile.MANIFEST_NAME), modified);
+            assertEquals(Collections.singleton("sub/file3.txt"), removed);
+
+            assertFalse("Stream file deleted", streamFile.exists());
+            assertEquals("example-watch-changed", org.jboss.osgi.vfs.VFSUtils.getManifest(virtualFile).getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME));
+            assertNull(virtualFile.getChild("sub/file3.txt"));
+            assertNotNull(virtualFile.getChild("sub/file4.txt"));
+
+            createFile(dir, "sub/file3.txt", "file3");
+            awaitChanges(virtualFile, added, "sub/file3.txt");
+            assertNotSame(child, virtualFile.getChild("sub/file3.txt"));
+
+            // Removing a directory removes the files below it
+            VirtualFile file4 = virtualFile.getChild("sub/file4.txt");
+            VFSUtils.recursiveDelete(new File(dir, "sub"));
+            awaitChanges(virtualFile, removed, "sub/");
+            assertNull(virtualFile.getChild("sub/file4.txt"));
+            createFile(dir, "sub/file4.txt", "file4");
+            awaitChanges(virtualFile, added, "sub/");
+            assertNotSame(file4, virtualFile.getChild("sub/file4.txt"));
+
+            Set<String> actual = new HashSet<String>();
+            JarInputStream jarIn = new JarInputStream(virtualFile.getStreamURL().openStream());
+            try {
+                ZipEntry entry = jarIn.getNextEntry();
+                while (entry != null) {
+                    actual.add(entry.getName());
+                    entry = jarIn.getNextEntry();
+                }
+            } finally {
+                jarIn.close();
+            }
+            assertTrue("sub/file4.txt in " + actual, actual.contains("sub/file4.txt"));
+        } finally {
+            virtualFile.close();
+        }
+
+        VirtualFile archive = AbstractVFS.toVirtualFile(file.toURI());
+        try {
+            VFSAdaptor30.checkForChanges(archive);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void testStreamAccessFromStream() throws Exception {
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile("foo-stream", new FileInputStream(file));
+        try {
+            JarInputStream jarIn = new JarInputStream(virtualFile.openStream());
+            Manifest manifest = jarIn.getManifest();
+            Attributes attributes = manifest.getMainAttributes();
+            String symbolicName = attributes.getValue(Constants.BUNDLE_SYMBOLICNAME);
+            assertEquals("example-simple", symbolicName);
+            jarIn.close();
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testMemoryMount() throws Exception {
+        VirtualFile expected = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            Map<String, String> expectedEntries = getEntryContents(expected);
+            assertTrue("Archive entries found", expectedEntries.containsKey("sub/sub1/file6.txt"));
+            for (String direct : new String[] { "false", "true" }) {
+                System.setProperty(VFSAdaptor30.PROPERTY_VFS_MEMORY_MOUNT_THRESHOLD, "" + file2.length());
+                System.setProperty(VFSAdaptor30.PROPERTY_VFS_MEMORY_MOUNT_DIRECT, direct);
+                VirtualFile virtualFile;
+                try {
+                    virtualFile = AbstractVFS.toVirtualFile("foo-memory-" + direct, new FileInputStream(file2));
+                } finally {
+                    System.clearProperty(VFSAdaptor30.PROPERTY_VFS_MEMORY_MOUNT_THRESHOLD);
+                    System.clearProperty(VFSAdaptor30.PROPERTY_VFS_MEMORY_MOUNT_DIRECT);
+                }
+                try {
+                    assertEquals(expectedEntries, getEntryContents(virtualFile));
+                    assertNull("Child is null", virtualFile.getChild("sub/file7.txt"));
+                    assertEquals(file2.length(), readBytes(virtualFile.openStream()).length);
+
+                    File streamFile = new File(virtualFile.getStreamURL().toURI());
+                    assertEquals(file2.length(), streamFile.length());
+                } finally {
+                    virtualFile.close();
+                }
+            }
+
+            // Archives above the threshold spill to a temp file
+            System.setProperty(VFSAdaptor30.PROPERTY_VFS_MEMORY_MOUNT_THRESHOLD, "" + (file2.length() - 1));
+            VirtualFile virtualFile;
+            try {
+                virtualFile = AbstractVFS.toVirtualFile("foo-spilled", new FileInputStream(file2));
+            } finally {
+                System.clearProperty(VFSAdaptor30.PROPERTY_VFS_MEMORY_MOUNT_THRESHOLD);
+            }
+            try {
+                assertEquals(expectedEntries, getEntryContents(virtualFile));
+            } finally {
+                virtualFile.close();
+            }
+
+            // An invalid threshold disables memory mounts
+            System.setProperty(VFSAdaptor30.PROPERTY_VFS_MEMORY_MOUNT_THRESHOLD, "abc");
+            try {
+                virtualFile = AbstractVFS.toVirtualFile("foo-invalid", new FileInputStream(file2));
+            } finally {
+                System.clearProperty(VFSAdaptor30.PROPERTY_VFS_MEMORY_MOUNT_THRESHOLD);
+            }
+            try {
+                assertEquals(expectedEntries, getEntryContents(virtualFile));
+            } finally {
+                virtualFile.close();
+            }
+        } finally {
+            expected.close();
+        }
+    }
+
+    @Test
+    public void testEntryCache() throws Exception {
+        System.setProperty(VFSAdaptor30.PROPERTY_VFS_ENTRY_CACHE_SIZE, "1048576");
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            VirtualFile child = virtualFile.getChild("sub/file3.txt");
+            long lookups = VFSAdaptor30.getEntryCacheHits() + VFSAdaptor30.getEntryCacheMisses();
+            byte[] expected = readBytes(child.openStream());
+            assertEquals(lookups + 1, VFSAdaptor30.getEntryCacheHits() + VFSAdaptor30.getEntryCacheMisses());
+            assertTrue("Cache not empty", VFSAdaptor30.getEntryCacheSize() > 0);
+
+            long hits = VFSAdaptor30.getEntryCacheHits();
+            assertTrue("Same content", Arrays.equals(expected, readBytes(child.openStream())));
+            assertEquals(hits + 1, VFSAdaptor30.getEntryCacheHits());
+        } finally {
+            virtualFile.close();
+            System.clearProperty(VFSAdaptor30.PROPERTY_VFS_ENTRY_CACHE_SIZE);
+        }
+        assertEquals("Cache disabled", 0, VFSAdaptor30.getEntryCacheSize());
+
+        // An invalid size disables the cache
+        System.setProperty(VFSAdaptor30.PROPERTY_VFS_ENTRY_CACHE_SIZE, "abc");
+        virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            long hits = VFSAdaptor30.getEntryCacheHits();
+            readBytes(virtualFile.getChild("sub/file3.txt").openStream());
+            assertEquals(hits, VFSAdaptor30.getEntryCacheHits());
+            assertEquals("Cache disabled", 0, VFSAdaptor30.getEntryCacheSize());
+        } finally {
+            virtualFile.close();
+            System.clearProperty(VFSAdaptor30.PROPERTY_VFS_ENTRY_CACHE_SIZE);
+        }
+    }
+
+    @Test
+    public void testReadEntries() throws Exception {
+        List<String> paths = Arrays.asList("sub/sub1/file6.txt", "/file1.txt", "sub/file7.txt", "sub", "sub/../file2.txt");
+        VirtualFile virtualFile = AbstractVFS.toVirtualFile(file2.toURI());
+        try {
+            Map<String, byte[]> entries = org.jboss.osgi.vfs.VFSUtils.readEntries(virtualFile, paths);
+            assertEquals(Arrays.asList("/file1.txt", "sub/sub1/file6.txt", "sub/../file2.txt"), new ArrayList<String>(entries.keySet()));
+            assertEquals("file6", new String(entries.get("sub/sub1/file6.txt")));
+            assertEquals("file1", new String(entries.get("/file1.txt")));
+            assertEquals("file2", new String(entries.get("sub/../file2.txt")));
+        } finally {
+            virtualFile.close();
+        }
+
+        File dir = new File("target/example-exploded");
+        createFile(dir, "file1.txt", "file1");
+        createFile(dir, "sub/sub1/file6.txt", "file6");
+        virtualFile = AbstractVFS.toVirtualFile(dir.toURI());
+        try {
+            Map<String, byte[]> entries = org.jboss.osgi.vfs.VFSUtils.readEntries(virtualFile, paths);
+            assertEquals(Arrays.asList("sub/sub1/file6.txt", "/file1.txt"), new ArrayList<String>(entries.keySet()));
+            assertEquals("file6", new String(entries.get("sub/sub1/file6.txt")));
+        } finally {
+            virtualFile.close();
+        }
+    }
+
+    @Test
+    public void testCorruptEntrySize() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zipOut = new ZipOutputStream(bytes);
+        zipOut.putNextEntry(new ZipEntry("a.txt"));
+        zipOut.write("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes());
+        zipOut.closeEntry();
+        zipOut.close();
+
+        // Declare a size in the central directory that the compressed data cannot expand to
+        for (long size : new long[] { 0x7FFFFFF0L, 0xF0000000L, 1L << 20 }) {
+            byte[] archive = bytes.toByteArray();
+            for (int pos = archive.length - 22; pos >= 0; pos--) {
+                if (archive[pos] == 'P' && archive[pos + 1] == 'K' && archive[pos + 2] == 1 && archive[pos + 3] == 2) {
+                    for (int i = 0; i < 4; i++)
+                        archive[pos + 24 + i] = (byte) (size >> (8 * i));
+                    break;
+                }
+            }
+            File zipFile = new File("target/example-corrupt-size.zip");
+            FileOutputStream output = new FileOutputStream(zipFile);
+            try {
+                output.write(archive);
+            } finally {
+                output.close();
+            }
+
+            VirtualFile virtualFile = AbstractVFS.toVirtualFile(zipFile.toURI());
+            try {
+                org.jboss.osgi.vfs.VFSUtils.readEntries(virtualFile, Collections.singleton("a.txt"));
+                fail("ZipException expected for size " + size);
+            } catch (ZipException ex) {
+                // expected
+            } finally {
+                virtualFile.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptEntryCrc() throws Exception {
+        byte[] content = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes();
+        for (int method : new int[] { ZipEntry.STORED, ZipEntry.DEFLATED }) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ZipOutputStream zipOut = new ZipOutputStream(bytes);
+            ZipEntry entry = new ZipEntry("a.txt");
+            entry.setMethod(method);
+            entry.setSize(content.length);
+            entry.setCrc(crc.getValue());
+            zipOut.putNextEntry(entry);
+            zipOut.write(content);
+            zipOut.closeEntry();
+            zipOut.close();
+
+            // Declare a CRC in the central directory that does not match the content
+            byte[] archive = bytes.toByteArray();
+            for (int pos = archive.length - 22; pos >= 0; pos--) {
+                if (archive[pos] == 'P' && archive[pos + 1] == 'K' && archive[pos + 2] == 1 && archive[pos + 3] == 2) {
+                    archive[pos + 16] ^= 0x01;
+                    break;
+                }
+            }
+            File zipFile = new File("target/example-corrupt-crc.zip");
+            FileOutputStream output = new FileOutputStream(zipFile);
+            try {
+                output.write(archive);
+            } finally {
+                output.close();
+            }
+
+            VirtualFile virtualFile = AbstractVFS.toVirtualFile(zipFile.toURI());
+            try {
+                org.jboss.osgi.vfs.VFSUtils.readEntries(virtualFile, Collections.singleton("a.txt"));
+                fail("ZipException expected for method " + method);
+            } catch (ZipException ex) {
+                // expected
+            } finally {
+                virtualFile.close();
+            }
+        }
+    }
+
     @Test
     public void testStreamAccess() throws Exception {
         VirtualFile virtualFile = AbstractVFS.toVirtualFile(file.toURI());
@@ -337,6 +1594,76 @@ public class SimpleVFS30TestCase {
         }
     }
 
+    @Test
+    public void testCopyStream() throws Exception {
+        File copy = new File("target/example-copy.jar");
+        FileInputStream input = new FileInputStream(file);
+        FileOutputStream output = new FileOutputStream(copy);
+        try {
+            assertEquals(file.length(), org.jboss.osgi.vfs.VFSUtils.copyStream(input, output, null));
+        } finally {
+            input.close();
+            output.close();
+        }
+        assertEquals(file.length(), copy.length());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        input = new FileInputStream(copy);
+        try {
+            assertEquals(file.length(), org.jboss.osgi.vfs.VFSUtils.copyStream(new BufferedInputStream(input), bytes, new byte[17]));
+        } finally {
+            input.close();
+        }
+        assertEquals(file.length(), bytes.size());
+
+        try {
+            org.jboss.osgi.vfs.VFSUtils.copyStream(new ByteArrayInputStream(new byte[1]), bytes, new byte[0]);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCopyStreamFromPipe() throws Exception {
+        // A named pipe is a file input that cannot be transferred by its channel
+        final File fifo = new File("target/example-copy.fifo");
+        fifo.delete();
+        try {
+            if (new ProcessBuilder("mkfifo", fifo.getPath()).start().waitFor() != 0)
+                return;
+        } catch (IOException ex) {
+            return;
+        }
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    FileOutputStream output = new FileOutputStream(fifo);
+                    try {
+                        output.write(new byte[] { 1, 2, 3 });
+                    } finally {
+                        output.close();
+                    }
+                } catch (IOException ex) {
+                    // reported by the reader
+                }
+            }
+        };
+        writer.start();
+        File copy = new File("target/example-copy.bin");
+        FileInputStream input = new FileInputStream(fifo);
+        FileOutputStream output = new FileOutputStream(copy);
+        try {
+            assertEquals(3, org.jboss.osgi.vfs.VFSUtils.copyStream(input, output, null));
+        } finally {
+            input.close();
+            output.close();
+            writer.join();
+            fifo.delete();
+        }
+        assertEquals(3, copy.length());
+    }
+
     private static File toFile(JavaArchive archive) throws IOException {
         ZipExporter exporter = archive.as(ZipExporter.class);
         InputStream inputStream = exporter.exportAsInputStream();
@@ -345,6 +1672,58 @@ public class SimpleVFS30TestCase {
         return file;
     }
 
+    private static Map<String, String> getEntryContents(VirtualFile virtualFile) throws IOException {
+        Map<String, String> result = new HashMap<String, String>();
+        int prefixLength = virtualFile.getPathName().length() + 1;
+        for (VirtualFile child : virtualFile.getChildrenRecursively()) {
+            String path = child.getPathName().substring(prefixLength);
+            result.put(path, child.isFile() ? new String(readBytes(child.openStream())) : "<dir>");
+        }
+        return result;
+    }
+
+    private static byte[] readBytes(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        VFSUtils.copyStreamAndClose(input, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static boolean hasLiveMount(String pathName) {
+        return getLiveMount(pathName) != null;
+    }
+
+    private static String getLiveMount(String pathName) {
+        for (String entry : VFSAdaptor30.getLiveMounts()) {
+            if (entry.equals(pathName) || entry.startsWith(pathName + "\n"))
+                return entry;
+        }
+        return null;
+    }
+
+    // The watch service delivers the events asynchronously
+    private static void awaitChanges(VirtualFile root, Set<String> reported, String path) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (reported.contains(path) == false && System.currentTimeMillis() < deadline) {
+            if (VFSAdaptor30.checkForChanges(root) == false)
+                Thread.sleep(20);
+        }
+        assertTrue(path + " reported in " + reported, reported.contains(path));
+    }
+
+    private static Set<String> findEntries(VirtualFile virtualFile, String pattern) throws IOException {
+        Set<String> actual = new HashSet<String>();
+        Enumeration<URL> en = virtualFile.findEntries("/", pattern, false);
+        while (en.hasMoreElements())
+            actual.add(en.nextElement().toExternalForm());
+        return actual;
+    }
+
+    private static void createFile(File dir, String path, String content) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        VFSUtils.copyStream(new ByteArrayInputStream(content.getBytes()), new FileOutputStream(file));
+    }
+
     private static Asset getAsset(final String content) {
         return new Asset() {
             @Override